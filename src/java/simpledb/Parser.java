@@ -8,6 +8,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.LogicalFilterNode;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
@@ -21,10 +22,37 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Parser {
     static boolean explain = false;
 
+    // ZQL has no LIMIT clause, so a trailing "LIMIT n" is cut from the statement before
+    // it is parsed and added to the top-level LogicalPlan afterwards
+    private static final Pattern LIMIT = Pattern.compile("(?is)^(.*?)\\s+LIMIT\\s+(\\d+)\\s*;(.*)$");
+    private int limit = -1;
+
+    /**
+     * Removes a trailing LIMIT clause from the first statement of s, remembering its count
+     * for {@link #applyLimit}.
+     *
+     * @return s without the LIMIT clause
+     */
+    String stripLimit(String s) {
+        limit = -1;
+        Matcher m = LIMIT.matcher(s);
+        if (!m.matches() || m.group(1).contains(";"))
+            return s;
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + ";" + m.group(3);
+    }
+
+    private void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0)
+            lp.addLimit(limit);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -48,6 +76,43 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Converts an AND or OR of comparisons between a column and a constant,
+     * all over the same table, into a filter of lp.
+     */
+    LogicalFilterNode filterExpression(ZExpression wx, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (wx.getOperator().equals("AND") || wx.getOperator().equals("OR")) {
+            List<LogicalFilterNode> operands = new ArrayList<>();
+            for (int i = 0; i < wx.nbOperands(); i++) {
+                if (!(wx.getOperand(i) instanceof ZExpression)) {
+                    throw new simpledb.ParsingException(
+                            "Nested queries are currently unsupported.");
+                }
+                operands.add(filterExpression((ZExpression) wx.getOperand(i), lp));
+            }
+            return lp.filterNode(wx.getOperator().equals("OR"), operands);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<ZExp> ops = wx.getOperands();
+        if (ops.size() != 2 || !(ops.get(0) instanceof ZConstant)
+                || !(ops.get(1) instanceof ZConstant)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of a field with a constant are currently supported in OR expressions.");
+        }
+        Predicate.Op op = getOp(wx.getOperator());
+        ZConstant op1 = (ZConstant) ops.get(0);
+        ZConstant op2 = (ZConstant) ops.get(1);
+        if ((op1.getType() == ZConstant.COLUMNNAME) == (op2.getType() == ZConstant.COLUMNNAME)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of a field with a constant are currently supported in OR expressions.");
+        }
+        if (op1.getType() == ZConstant.COLUMNNAME)
+            return lp.filterNode(op1.getValue(), op, op2.getValue());
+        return lp.filterNode(op2.getValue(), op, op1.getValue());
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException, IOException, ParseException {
         if (wx.getOperator().equals("AND")) {
@@ -61,8 +126,7 @@ public class Parser {
 
             }
         } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+            lp.addFilter(filterExpression(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -187,23 +251,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +272,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        List<String> aggFields = new ArrayList<>();
+        List<String> aggFuns = new ArrayList<>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +283,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                        + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                        + si.getColumn()) || groupByFields.contains(si
                         .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,30 +304,30 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i));
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -284,9 +342,10 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
-        query.setPhysicalPlan(physicalPlan);
+        query.setPhysicalPlan(LogicalPlan.batched(physicalPlan));
         query.setLogicalPlan(lp);
 
         if (physicalPlan != null) {
@@ -383,6 +442,7 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            applyLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -465,12 +525,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -503,7 +565,8 @@ public class Parser {
 
     private void processNextStatementImpl(InputStream is, boolean expectNoErrors) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String sql = stripLimit(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
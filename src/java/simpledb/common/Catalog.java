@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.MappedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -227,6 +228,9 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as {@code name (field type [pk], ...) [options]}.
+     * The only option is {@code mmap}, which opens a table that is never
+     * modified as a read-only, memory-mapped {@link MappedHeapFile}.
      *
      * @param catalogFile
      */
@@ -241,6 +245,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 List<String> names = new ArrayList<>();
                 List<Type> types = new ArrayList<>();
@@ -268,7 +273,17 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf;
+                if (options.isEmpty())
+                    tabHf = new HeapFile(dataFile, t);
+                else if (options.equalsIgnoreCase("mmap"))
+                    tabHf = new MappedHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown option " + options);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,310 @@
+package simpledb.execution;
+
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tests a {@link CompoundPredicate} for a {@link Filter}. It reorders the
+ * operands of each AND and OR by their observed selectivity and cost. An AND
+ * tests first the cheapest operands that reject most rows. An OR tests first
+ * the cheapest operands that pass most rows. Each row stops at the first
+ * operand that decides it.
+ * <p>
+ * Timing every tuple would cost more than most predicates. So one tuple in
+ * {@link #TUPLE_SAMPLE} is sampled: every operand is tested on it and timed.
+ * Batches are timed one operand at a time, and an operand is charged for the
+ * rows the operands before it passed on to it. Statistics decay by half at
+ * each reorder, so the order follows changes in the data.
+ * <p>
+ * An AdaptiveFilter is used by one thread.
+ * 根据观察到的选择率和代价调整谓词顺序
+ */
+class AdaptiveFilter {
+
+    /** Rows tested between two reorders. */
+    static final int REORDER_ROWS = 4096;
+
+    /** One tuple in TUPLE_SAMPLE is tested on every operand and timed. */
+    static final int TUPLE_SAMPLE = 64;
+
+    private final Node root;
+    private long tuples;
+    private int rowsSinceReorder;
+
+    AdaptiveFilter(CompoundPredicate p) {
+        root = build(p);
+    }
+
+    private static Node build(CompoundPredicate p) {
+        if (p.getKind() == CompoundPredicate.Kind.PREDICATE)
+            return new Leaf(p.getPredicate());
+        Node[] children = new Node[p.getOperands().size()];
+        for (int i = 0; i < children.length; i++)
+            children[i] = build(p.getOperands().get(i));
+        return new Group(p.getKind() == CompoundPredicate.Kind.AND, children);
+    }
+
+    /**
+     * @return true if t passes the condition
+     */
+    boolean test(Tuple t) {
+        boolean r = ++tuples % TUPLE_SAMPLE == 0 ? root.sample(t) : root.test(t);
+        if (++rowsSinceReorder >= REORDER_ROWS)
+            reorder();
+        return r;
+    }
+
+    /**
+     * Writes the selected rows of b that pass the condition to out, in
+     * order. out may be the selection vector of b, and b's selection is
+     * unspecified afterwards.
+     *
+     * @return the number of rows written to out
+     */
+    int filter(TupleBatch b, int[] out) {
+        int n = b.size();
+        int k = root.filter(b, out);
+        rowsSinceReorder += n;
+        if (rowsSinceReorder >= REORDER_ROWS)
+            reorder();
+        return k;
+    }
+
+    private void reorder() {
+        root.reorder();
+        rowsSinceReorder = 0;
+    }
+
+    /**
+     * @return the condition in the order operands are tested now
+     */
+    CompoundPredicate order() {
+        return root.order();
+    }
+
+    private abstract static class Node {
+        // rows tested, rows passed and nanoseconds spent, decayed at reorders
+        double tested, passed, nanos;
+
+        abstract boolean test(Tuple t);
+
+        /**
+         * Like test, but tests every operand and records their statistics.
+         */
+        abstract boolean sample(Tuple t);
+
+        abstract int filter(TupleBatch b, int[] out);
+
+        /**
+         * @return the cost per row assumed before any row was timed
+         */
+        abstract double defaultCost();
+
+        void reorder() {
+        }
+
+        abstract CompoundPredicate order();
+
+        void record(long ns, int in, int out) {
+            nanos += ns;
+            tested += in;
+            passed += out;
+        }
+
+        void decay() {
+            nanos /= 2;
+            tested /= 2;
+            passed /= 2;
+        }
+
+        /**
+         * @return the observed fraction of rows passed, starting from 1/2
+         */
+        double passRate() {
+            return (passed + 1) / (tested + 2);
+        }
+
+        double cost() {
+            return tested >= 1 ? nanos / tested : defaultCost();
+        }
+    }
+
+    private static final class Leaf extends Node {
+        private final Predicate p;
+        private final TupleFilter f;
+
+        Leaf(Predicate p) {
+            this.p = p;
+            this.f = p.compile();
+        }
+
+        boolean test(Tuple t) {
+            return f.test(t);
+        }
+
+        boolean sample(Tuple t) {
+            return f.test(t);
+        }
+
+        int filter(TupleBatch b, int[] out) {
+            return p.filter(b, out);
+        }
+
+        double defaultCost() {
+            // string comparisons copy and compare the string
+            return p.getOperand() instanceof IntField ? 1 : 20;
+        }
+
+        CompoundPredicate order() {
+            return CompoundPredicate.of(p);
+        }
+    }
+
+    private static final class Group extends Node {
+        private final boolean and;
+        // in the order they are tested
+        private final Node[] children;
+        // scratch selections of an OR over batches
+        private int[] rest, hits, acc, merged;
+
+        Group(boolean and, Node[] children) {
+            this.and = and;
+            this.children = children;
+        }
+
+        boolean test(Tuple t) {
+            for (Node c : children) {
+                if (c.test(t) != and)
+                    return !and;
+            }
+            return and;
+        }
+
+        boolean sample(Tuple t) {
+            boolean r = and;
+            for (Node c : children) {
+                long start = System.nanoTime();
+                boolean x = c.sample(t);
+                c.record(System.nanoTime() - start, 1, x ? 1 : 0);
+                r = and ? r && x : r || x;
+            }
+            return r;
+        }
+
+        int filter(TupleBatch b, int[] out) {
+            if (and) {
+                // each operand narrows the selection of the one before
+                int n = b.size();
+                for (Node c : children) {
+                    long start = System.nanoTime();
+                    int k = c.filter(b, out);
+                    c.record(System.nanoTime() - start, n, k);
+                    b.select(out, k);
+                    n = k;
+                    if (n == 0)
+                        break;
+                }
+                return n;
+            }
+            // each operand tests only the rows no operand before it passed
+            int cap = b.capacity();
+            if (rest == null || rest.length < cap) {
+                rest = new int[cap];
+                hits = new int[cap];
+                acc = new int[cap];
+                merged = new int[cap];
+            }
+            int nRest = b.size();
+            for (int i = 0; i < nRest; i++)
+                rest[i] = b.row(i);
+            int nAcc = 0;
+            for (Node c : children) {
+                b.select(rest, nRest);
+                long start = System.nanoTime();
+                int k = c.filter(b, hits);
+                c.record(System.nanoTime() - start, nRest, k);
+                nAcc = union(acc, nAcc, hits, k, merged);
+                int[] tmp = acc;
+                acc = merged;
+                merged = tmp;
+                nRest = minus(rest, nRest, hits, k);
+                if (nRest == 0)
+                    break;
+            }
+            System.arraycopy(acc, 0, out, 0, nAcc);
+            return nAcc;
+        }
+
+        double defaultCost() {
+            double cost = 0;
+            for (Node c : children)
+                cost += c.defaultCost();
+            return cost;
+        }
+
+        void reorder() {
+            for (Node c : children)
+                c.reorder();
+            // an AND first tests operands that are cheap and reject rows, an
+            // OR operands that are cheap and pass rows
+            Comparator<Node> rank = Comparator.comparingDouble(
+                    c -> c.cost() / (and ? 1 - c.passRate() : c.passRate()));
+            Arrays.sort(children, rank);
+            for (Node c : children)
+                c.decay();
+        }
+
+        CompoundPredicate order() {
+            List<CompoundPredicate> l = new ArrayList<>();
+            for (Node c : children)
+                l.add(c.order());
+            return and ? CompoundPredicate.and(l) : CompoundPredicate.or(l);
+        }
+    }
+
+    /**
+     * Writes the union of the increasing rows a[0..na) and b[0..nb) to out.
+     *
+     * @return the number of rows written
+     */
+    private static int union(int[] a, int na, int[] b, int nb, int[] out) {
+        int i = 0, j = 0, k = 0;
+        while (i < na && j < nb) {
+            if (a[i] < b[j])
+                out[k++] = a[i++];
+            else if (a[i] > b[j])
+                out[k++] = b[j++];
+            else {
+                out[k++] = a[i++];
+                j++;
+            }
+        }
+        while (i < na)
+            out[k++] = a[i++];
+        while (j < nb)
+            out[k++] = b[j++];
+        return k;
+    }
+
+    /**
+     * Removes the rows of b[0..nb), a subset of a[0..na), from a, in place.
+     *
+     * @return the number of rows left in a
+     */
+    private static int minus(int[] a, int na, int[] b, int nb) {
+        int j = 0, k = 0;
+        for (int i = 0; i < na; i++) {
+            if (j < nb && a[i] == b[j])
+                j++;
+            else
+                a[k++] = a[i];
+        }
+        return k;
+    }
+}
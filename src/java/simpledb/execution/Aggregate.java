@@ -3,35 +3,52 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). It groups on zero or more columns and computes any number of
+ * aggregates in a single pass over its child.
+ * <p>
+ * With a parallelism above one, a child that {@link Gather#split} can split
+ * is split by page range. Each part is aggregated into
+ * partial results on its own thread, and the partial results are merged.
+ * <p>
+ * The child is read a batch at a time, through {@link BatchAdapter} if it
+ * has no batch implementation.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of groups held in memory. */
+    public static final int DEFAULT_MEMORY_GROUPS = HashAggregator.DEFAULT_MEMORY_GROUPS;
+
+    /** Default number of threads a splittable child is aggregated on. */
+    public static final int DEFAULT_PARALLELISM = Gather.DEFAULT_PARALLELISM;
+
     private OpIterator child;
-    private final int afield;
-    private final int gfield;
-    private final Aggregator.Op aop;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
     private final TupleDesc td;
     private Aggregator aggregator;
-    private final Type gbType;
-    private final Type aType;
+    private final Type[] gbTypes;
+    private final boolean[] intValues;
+    private final int memoryGroups;
+    private final int parallelism;
+    private transient TupleBatch out;
 
     /**
      * Constructor.
-     * <p>
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -40,64 +57,126 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // TODO: some code goes here
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for a GROUP BY over several columns with several aggregates.
+     * Output tuples hold the gfields in order, followed by one column per
+     * aggregate.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result, empty
+     *                if there is no grouping
+     * @param aops    aops[i] is the aggregation operator applied to afields[i]
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, HashAggregator.DEFAULT_MEMORY_GROUPS);
+    }
+
+    /**
+     * @param memoryGroups the number of groups held in memory before new
+     *                     groups are written to disk
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                     int memoryGroups) {
+        this(child, afields, gfields, aops, memoryGroups, 1);
+    }
+
+    /**
+     * @param memoryGroups the number of groups held in memory before new
+     *                     groups are written to disk
+     * @param parallelism  the number of parts the child is split into, each
+     *                     aggregated on its own thread
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                     int memoryGroups, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one op per aggregate field");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.memoryGroups = memoryGroups;
+        this.parallelism = parallelism;
         this.td = child.getTupleDesc();
-        if(gfield == -1) {
-            gbType = null;
-        } else {
-            gbType = td.getFieldType(gfield);
+        gbTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gbTypes[i] = td.getFieldType(gfields[i]);
+        intValues = new boolean[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            intValues[i] = td.getFieldType(afields[i]) == Type.INT_TYPE;
+            if (!intValues[i] && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("only count is supported over strings");
         }
-        aType = td.getFieldType(afield);
-
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        // TODO: some code goes here
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples. If not,
+     *         return null;
      */
     public String groupFieldName() {
-        // TODO: some code goes here
-        return td.getFieldName(gfield);
+        return gfields.length == 0 ? null : td.getFieldName(gfields[0]);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
-     * @return the aggregate field
+     * @return the first aggregate field
      */
     public int aggregateField() {
-        // TODO: some code goes here
-        return afield;
+        return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     * @return return the name of the first aggregate field in the <b>OUTPUT</b>
      *         tuples
      */
     public String aggregateFieldName() {
-        // TODO: some code goes here
-        return td.getFieldName(afield);
+        return td.getFieldName(afields[0]);
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the first aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        // TODO: some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, aggregateOps()[i] being applied to
+     *         aggregateFields()[i]
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -108,28 +187,114 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
-        // TODO: some code goes here
         super.open();
-        child.open();
-        if(aType == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gbType, afield, aop);
+        OpIterator[] parts = parallelism > 1 ? Gather.split(child, parallelism) : null;
+        if (parts == null || parts.length == 1) {
+            child.open();
+            HashAggregator agg = new HashAggregator(gfields, gbTypes, afields, aops, intValues,
+                    memoryGroups);
+            aggregator = agg;
+            merge(child, agg);
+            child.close();
         } else {
-            aggregator = new StringAggregator(gfield, gbType, afield, aop);
+            aggregator = aggregateParallel(parts);
         }
-        while(child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
-        }
-        child.close();
         opIterator = aggregator.iterator();
         opIterator.open();
     }
 
+    private static void merge(OpIterator in, HashAggregator agg)
+            throws DbException, TransactionAbortedException {
+        BatchIterator it = BatchAdapter.of(in);
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null)
+            agg.mergeBatch(b);
+    }
+
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Aggregates each part into partial results on the Gather workers, then merges the
+     * partial results of all parts.
+     */
+    private Aggregator aggregateParallel(OpIterator[] parts)
+            throws DbException, TransactionAbortedException {
+        Aggregator.Op[] partialOps = new Aggregator.Op[aops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[aops.length];
+        // the columns of the partial results that are merged
+        int[] finalGfields = new int[gfields.length];
+        int[] finalAfields = new int[aops.length];
+        boolean[] finalIntValues = new boolean[aops.length];
+        for (int i = 0; i < gfields.length; i++)
+            finalGfields[i] = i;
+        int c = gfields.length;
+        for (int i = 0; i < aops.length; i++) {
+            partialOps[i] = HashAggregator.partialOp(aops[i]);
+            finalOps[i] = HashAggregator.finalOp(aops[i]);
+            finalAfields[i] = c;
+            finalIntValues[i] = true;
+            c += HashAggregator.width(partialOps[i]);
+        }
+        int partGroups = Math.max(1, memoryGroups / parts.length);
+
+        List<Future<HashAggregator>> futures = new ArrayList<>();
+        for (OpIterator part : parts) {
+            futures.add(Gather.workers.submit(() -> {
+                HashAggregator partial = new HashAggregator(gfields, gbTypes, afields, partialOps,
+                        intValues, partGroups);
+                part.open();
+                try {
+                    merge(part, partial);
+                } finally {
+                    part.close();
+                }
+                return partial;
+            }));
+        }
+
+        HashAggregator result = new HashAggregator(finalGfields, gbTypes, finalAfields, finalOps,
+                finalIntValues, memoryGroups);
+        Throwable failure = null;
+        // wait for every part, even after one fails, so none still runs
+        // once the transaction is aborted
+        for (Future<HashAggregator> f : futures) {
+            HashAggregator partial;
+            try {
+                partial = f.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    failure = new TransactionAbortedException();
+                continue;
+            }
+            try {
+                if (failure == null) {
+                    OpIterator it = partial.iterator();
+                    it.open();
+                    while (it.hasNext())
+                        result.mergeTupleIntoGroup(it.next());
+                    it.close();
+                }
+            } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                failure = e;
+            } finally {
+                partial.close();
+            }
+        }
+        if (failure == null)
+            return result;
+        result.close();
+        Gather.rethrow(failure);
+        return null;
+    }
+
+    /**
+     * Returns the next tuple. The group by fields come first, in order,
+     * followed by the result of each aggregate. If there is no group by field,
+     * the result tuple holds only the aggregates. Should return null if there
+     * are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // TODO: some code goes here
@@ -138,6 +303,15 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            out = new TupleBatch(getTupleDesc(), DEFAULT_BATCH_ROWS);
+        out.clear();
+        while (!out.isFull() && opIterator.hasNext())
+            out.add(opIterator.next());
+        return out.rows() == 0 ? null : out;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // TODO: some code goes here
         close();
@@ -145,10 +319,8 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields come
+     * first, followed by one integer column per aggregate.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -156,23 +328,36 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        // TODO: some code goes here
-        if(gfield == -1) {
-            Type[] typear = new Type[]{aType};
-            String[] fieldar = new String[]{aggregateFieldName()};
-            return new TupleDesc(typear, fieldar);
-        } else {
-            Type[] typear = new Type[]{gbType, aType};
-            String[] fieldar = new String[]{groupFieldName(), aggregateFieldName()};
-            return new TupleDesc(typear, fieldar);
+        int n = gfields.length;
+        for (Aggregator.Op aop : aops)
+            n += HashAggregator.width(aop);
+        Type[] typear = new Type[n];
+        String[] fieldar = new String[n];
+        for (int i = 0; i < gfields.length; i++) {
+            typear[i] = gbTypes[i];
+            fieldar[i] = td.getFieldName(gfields[i]);
+        }
+        int c = gfields.length;
+        for (int i = 0; i < afields.length; i++) {
+            for (int j = 0; j < HashAggregator.width(aops[i]); j++) {
+                typear[c] = Type.INT_TYPE;
+                fieldar[c++] = td.getFieldName(afields[i]);
+            }
         }
+        return new TupleDesc(typear, fieldar);
     }
 
     public void close() {
-        // TODO: some code goes here
         super.close();
-        opIterator.close();
-        aggregator = null;
+        if (opIterator != null) {
+            opIterator.close();
+            opIterator = null;
+        }
+        if (aggregator != null) {
+            aggregator.close();
+            aggregator = null;
+        }
+        out = null;
     }
 
     @Override
@@ -85,4 +85,11 @@ public interface Aggregator extends Serializable {
      */
     OpIterator iterator();
 
+    /**
+     * Release any state written to disk while merging tuples. The aggregator
+     * must not be used afterwards.
+     */
+    default void close() {
+    }
+
 }
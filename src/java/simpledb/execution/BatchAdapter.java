@@ -0,0 +1,74 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads an OpIterator that has no batch implementation a batch at a time. The
+ * adapter opens, rewinds and closes the iterator it wraps.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int batchRows;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child     the iterator to read
+     * @param batchRows the maximum number of rows per batch
+     */
+    public BatchAdapter(OpIterator child, int batchRows) {
+        this.child = child;
+        this.batchRows = batchRows;
+    }
+
+    /**
+     * @return it if it has a batch implementation, or an adapter over it
+     */
+    public static BatchIterator of(OpIterator it) {
+        if (it instanceof BatchIterator)
+            return (BatchIterator) it;
+        return new BatchAdapter(it, DEFAULT_BATCH_ROWS);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc(), batchRows);
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.rows() == 0 ? null : batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,33 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchIterator is implemented by operators that can return their tuples a
+ * {@link TupleBatch} at a time, so that a consumer pays for one call per batch
+ * rather than per tuple and can loop over whole columns.
+ * <p>
+ * Between open (or rewind) and close, a consumer reads an operator either
+ * through next or through nextBatch, not both. Batches do not carry record
+ * ids, so operators that need them, such as Delete, read tuples.
+ *
+ * @see BatchAdapter
+ * @see TupleAdapter
+ */
+public interface BatchIterator extends OpIterator {
+
+    /** Default maximum number of rows per batch. */
+    int DEFAULT_BATCH_ROWS = 1024;
+
+    /**
+     * Returns the next batch. A batch returned holds at least one selected
+     * row, and stays valid only until the next call to nextBatch, rewind or
+     * close, since operators reuse their batches.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,121 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CompoundPredicate is a condition of a WHERE clause over one table: a single
+ * {@link Predicate}, or an AND or OR of other CompoundPredicates. Operands are
+ * tested in order and the test stops at the first operand that decides the
+ * result; {@link Filter} reorders them while it runs.
+ * 由AND和OR组合的谓词树
+ */
+public class CompoundPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        PREDICATE, AND, OR
+    }
+
+    private final Kind kind;
+    private final Predicate predicate;
+    private final List<CompoundPredicate> operands;
+
+    private CompoundPredicate(Kind kind, Predicate predicate, List<CompoundPredicate> operands) {
+        this.kind = kind;
+        this.predicate = predicate;
+        this.operands = operands;
+    }
+
+    /**
+     * @return a condition that holds when p holds
+     */
+    public static CompoundPredicate of(Predicate p) {
+        return new CompoundPredicate(Kind.PREDICATE, p, Collections.emptyList());
+    }
+
+    /**
+     * @return a condition that holds when every operand holds
+     */
+    public static CompoundPredicate and(List<CompoundPredicate> operands) {
+        return group(Kind.AND, operands);
+    }
+
+    /**
+     * @return a condition that holds when any operand holds
+     */
+    public static CompoundPredicate or(List<CompoundPredicate> operands) {
+        return group(Kind.OR, operands);
+    }
+
+    private static CompoundPredicate group(Kind kind, List<CompoundPredicate> operands) {
+        if (operands.isEmpty())
+            throw new IllegalArgumentException("need at least one operand");
+        if (operands.size() == 1)
+            return operands.get(0);
+        return new CompoundPredicate(kind, null, Collections.unmodifiableList(new ArrayList<>(operands)));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the predicate if this is a single predicate, null otherwise
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return the operands of an AND or OR, empty for a single predicate
+     */
+    public List<CompoundPredicate> getOperands() {
+        return operands;
+    }
+
+    /**
+     * @return the predicates of this condition, from left to right
+     */
+    public List<Predicate> predicates() {
+        List<Predicate> l = new ArrayList<>();
+        addPredicates(l);
+        return l;
+    }
+
+    private void addPredicates(List<Predicate> l) {
+        if (kind == Kind.PREDICATE)
+            l.add(predicate);
+        for (CompoundPredicate c : operands)
+            c.addPredicates(l);
+    }
+
+    /**
+     * @return the condition compiled into a tree of lambdas that tests the
+     *         operands in order
+     * @see Predicate#compile
+     */
+    public TupleFilter compile() {
+        if (kind == Kind.PREDICATE)
+            return predicate.compile();
+        List<TupleFilter> filters = new ArrayList<>();
+        for (CompoundPredicate c : operands)
+            filters.add(c.compile());
+        return kind == Kind.AND ? TupleFilter.and(filters) : TupleFilter.or(filters);
+    }
+
+    public String toString() {
+        if (kind == Kind.PREDICATE)
+            return predicate.toString();
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0)
+                sb.append(' ').append(kind).append(' ');
+            sb.append(operands.get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts the tuples of an OpIterator holding at most a fixed
+ * number of them in memory.
+ * <p>
+ * Input that fits is sorted in memory. Otherwise each memory load is sorted
+ * and written to a {@link SpillFile} as a run, runs are merged
+ * {@link #MERGE_FANIN} at a time until at most that many are left, and the
+ * last merge is done while the sorted tuples are read. Merges pick the next
+ * tuple with a loser tree, which takes log2(runs) comparisons per tuple.
+ */
+class ExternalSort {
+
+    /** Default number of tuples held in memory. */
+    static final int DEFAULT_MEMORY_TUPLES = 100000;
+    /** Maximum number of runs merged at once. */
+    static final int MERGE_FANIN = 64;
+
+    private final Comparator<Tuple> cmp;
+    private final int memoryTuples;
+
+    // the sorted tuples, if they fit in memory
+    private List<Tuple> sorted;
+    private int pos;
+    // otherwise the sorted runs, and the merge of them being read
+    private final List<SpillFile> runs = new ArrayList<>();
+    private LoserTree merge;
+
+    /**
+     * Merges sorted runs. Each internal node of the tree holds the run that
+     * lost the comparison there, and node 0 the overall winner, so that
+     * replacing the winner's tuple only replays its path to the root.
+     */
+    private class LoserTree {
+        private final SpillFile.Reader[] readers;
+        // the next tuple of each run, null once it is exhausted
+        private final Tuple[] heads;
+        private final int[] tree;
+
+        LoserTree(List<SpillFile> files) throws DbException {
+            int k = files.size();
+            readers = new SpillFile.Reader[k];
+            heads = new Tuple[k];
+            tree = new int[Math.max(k, 1)];
+            try {
+                for (int i = 0; i < k; i++) {
+                    readers[i] = files.get(i).reader();
+                    heads[i] = readers[i].next();
+                }
+            } catch (DbException e) {
+                close();
+                throw e;
+            }
+            // k stands for a run that beats every other, so that each
+            // real run settles at the first node where it loses
+            Arrays.fill(tree, k);
+            for (int i = k - 1; i >= 0; i--)
+                adjust(i);
+        }
+
+        /**
+         * @return true if run a's next tuple comes before run b's
+         */
+        private boolean beats(int a, int b) {
+            if (a == readers.length || b == readers.length)
+                return a == readers.length;
+            if (heads[a] == null || heads[b] == null)
+                return heads[b] == null;
+            return cmp.compare(heads[a], heads[b]) < 0;
+        }
+
+        private void adjust(int s) {
+            for (int t = (s + readers.length) / 2; t > 0; t /= 2) {
+                if (beats(tree[t], s)) {
+                    int winner = tree[t];
+                    tree[t] = s;
+                    s = winner;
+                }
+            }
+            tree[0] = s;
+        }
+
+        /**
+         * @return the smallest tuple not yet returned, or null if all runs
+         *         are exhausted
+         */
+        Tuple next() throws DbException {
+            if (readers.length == 0)
+                return null;
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            heads[w] = readers[w].next();
+            adjust(w);
+            return t;
+        }
+
+        void close() {
+            for (SpillFile.Reader r : readers)
+                if (r != null)
+                    r.close();
+        }
+    }
+
+    ExternalSort(Comparator<Tuple> cmp, int memoryTuples) {
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memoryTuples must be positive");
+        this.cmp = cmp;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * Reads all tuples of child, which must be open, and positions this
+     * before the first of them in sorted order.
+     */
+    void sort(OpIterator child) throws DbException, TransactionAbortedException {
+        close();
+        List<Tuple> buf = new ArrayList<>();
+        while (child.hasNext()) {
+            if (buf.size() == memoryTuples) {
+                runs.add(writeRun(buf, child));
+                buf.clear();
+            }
+            buf.add(child.next());
+        }
+        buf.sort(cmp);
+        if (runs.isEmpty()) {
+            sorted = buf;
+        } else {
+            runs.add(writeRun(buf, child));
+            while (runs.size() > MERGE_FANIN) {
+                List<SpillFile> group = new ArrayList<>(runs.subList(0, MERGE_FANIN));
+                runs.subList(0, MERGE_FANIN).clear();
+                runs.add(mergeRuns(group, child));
+            }
+        }
+        rewind();
+    }
+
+    private SpillFile writeRun(List<Tuple> buf, OpIterator child) throws DbException {
+        buf.sort(cmp);
+        SpillFile run = new SpillFile(child.getTupleDesc());
+        for (Tuple t : buf)
+            run.add(t);
+        return run;
+    }
+
+    private SpillFile mergeRuns(List<SpillFile> group, OpIterator child) throws DbException {
+        SpillFile run = new SpillFile(child.getTupleDesc());
+        LoserTree tree = null;
+        try {
+            tree = new LoserTree(group);
+            for (Tuple t = tree.next(); t != null; t = tree.next())
+                run.add(t);
+        } finally {
+            if (tree != null)
+                tree.close();
+            for (SpillFile f : group)
+                f.close();
+        }
+        return run;
+    }
+
+    /**
+     * Positions this before the first tuple again.
+     */
+    void rewind() throws DbException {
+        pos = 0;
+        if (sorted == null) {
+            closeMerge();
+            merge = new LoserTree(runs);
+        }
+    }
+
+    /**
+     * @return the next tuple in sorted order, or null if there are no more
+     */
+    Tuple next() throws DbException {
+        if (sorted != null)
+            return pos < sorted.size() ? sorted.get(pos++) : null;
+        return merge == null ? null : merge.next();
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+    }
+
+    /**
+     * Releases the sorted tuples and deletes the runs.
+     */
+    void close() {
+        closeMerge();
+        for (SpillFile f : runs)
+            f.close();
+        runs.clear();
+        sorted = null;
+    }
+}
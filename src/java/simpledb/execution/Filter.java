@@ -2,20 +2,31 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 import java.util.NoSuchElementException;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Read through
+ * {@link #nextBatch}, it filters a batch of its child at a time, and only
+ * narrows the selection vector of the batch.
+ * <p>
+ * The condition may be an AND or OR of predicates; the order its operands
+ * are tested in follows their observed selectivity and cost.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
-    private Predicate p;
+    private final CompoundPredicate condition;
     private OpIterator child;
+    private transient BatchIterator batchChild;
+    // the selection vector of the batches returned
+    private transient int[] sel;
+    // tests the condition, created when the operator is opened
+    private transient AdaptiveFilter filter;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -26,13 +37,40 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // TODO: some code goes here
-        this.p = p;
+        this(CompoundPredicate.of(p), child);
+    }
+
+    /**
+     * Constructor for a filter on an AND or OR of predicates.
+     *
+     * @param condition The condition to filter tuples with
+     * @param child     The child operator
+     */
+    public Filter(CompoundPredicate condition, OpIterator child) {
+        this.condition = condition;
         this.child = child;
     }
 
+    /**
+     * @return the predicate, or null if the condition is an AND or OR of
+     *         predicates
+     * @see #getCondition
+     */
     public Predicate getPredicate() {
         // TODO: some code goes here
-        return p;
+        return condition.getPredicate();
+    }
+
+    public CompoundPredicate getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return the condition with its operands in the order they are tested
+     *         now, or as given if the operator is not open
+     */
+    public CompoundPredicate getTestOrder() {
+        return filter == null ? condition : filter.order();
     }
 
     public TupleDesc getTupleDesc() {
@@ -45,6 +83,7 @@ public class Filter extends Operator {
         // TODO: some code goes here
         super.open();
         child.open();
+        filter = new AdaptiveFilter(condition);
     }
 
     public void close() {
@@ -63,6 +102,7 @@ public class Filter extends Operator {
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
      * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * The predicates are tested in their compiled form.
      *
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -73,12 +113,28 @@ public class Filter extends Operator {
         // TODO: some code goes here
         while(child.hasNext()) {
             Tuple t = child.next();
-            if (p.filter(t))
+            if (filter.test(t))
                 return t;
         }
         return null;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null)
+            batchChild = BatchAdapter.of(child);
+        TupleBatch b;
+        while ((b = batchChild.nextBatch()) != null) {
+            if (sel == null || sel.length < b.capacity())
+                sel = new int[b.capacity()];
+            int n = filter.filter(b, sel);
+            if (n > 0) {
+                b.select(sel, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // TODO: some code goes here
@@ -89,6 +145,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // TODO: some code goes here
         child = children[0];
+        batchChild = null;
     }
 
 }
@@ -0,0 +1,254 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather is an exchange operator that runs each of its children on its own
+ * worker thread and returns the tuples of all of them, in no particular
+ * order. Workers hand tuples over in batches through a bounded queue, so a
+ * slow consumer stops them instead of letting them buffer the whole input.
+ * <p>
+ * The children are usually the scan and filter pipelines returned by
+ * {@link #split}, each over its own page range of a table.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pipelines a plan is split into. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** Default number of tuples waiting in the queue before workers block. */
+    public static final int DEFAULT_QUEUE_TUPLES = 4096;
+
+    private static final int BATCH_TUPLES = 64;
+
+    // how often a worker blocked on a full queue checks whether it was stopped
+    private static final long OFFER_MILLIS = 10;
+
+    // runs the workers, and the parts of parallel aggregations; idle threads
+    // exit, and never keep the JVM alive. Workers may block on page locks,
+    // so they get threads of their own rather than the common pool
+    static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "Gather-worker");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * A batch of tuples from one worker; the last message of a worker has no
+     * tuples, and holds its failure if it did not finish its child.
+     */
+    private static class Message {
+        final List<Tuple> tuples;
+        final Throwable failure;
+
+        Message(List<Tuple> tuples, Throwable failure) {
+            this.tuples = tuples;
+            this.failure = failure;
+        }
+    }
+
+    private OpIterator[] children;
+    private final int queueTuples;
+    private transient BlockingQueue<Message> queue;
+    private transient List<Future<?>> running;
+    private transient volatile boolean stopped;
+    // workers that have not sent their last message yet
+    private int active;
+    private Iterator<Tuple> batch;
+
+    /**
+     * @param children the pipelines to run in parallel; they must have the
+     *                 same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        this(children, DEFAULT_QUEUE_TUPLES);
+    }
+
+    /**
+     * @param children    the pipelines to run in parallel; they must have the
+     *                    same TupleDesc
+     * @param queueTuples the number of tuples waiting in the queue before
+     *                    workers block
+     */
+    public Gather(OpIterator[] children, int queueTuples) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("need at least one child");
+        if (queueTuples < 1)
+            throw new IllegalArgumentException("queueTuples must be positive");
+        this.children = children.clone();
+        this.queueTuples = queueTuples;
+    }
+
+    /**
+     * Splits plan into at most n pipelines over disjoint page ranges that
+     * together return the tuples of plan. A {@link SeqScan} is split by
+     * {@link SeqScan#split}, a {@link Filter} is applied to each part of its
+     * child, and a Gather is split into its children.
+     * 切分成可以并行执行的多个管道
+     *
+     * @return the pipelines, or null if plan cannot be split
+     */
+    public static OpIterator[] split(OpIterator plan, int n) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).split(n);
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            OpIterator[] childParts = split(f.getChildren()[0], n);
+            if (childParts == null)
+                return null;
+            OpIterator[] parts = new OpIterator[childParts.length];
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Filter(f.getCondition(), childParts[i]);
+            return parts;
+        }
+        if (plan instanceof Gather)
+            return ((Gather) plan).getChildren();
+        return null;
+    }
+
+    /**
+     * Rethrows the failure of a worker on the calling thread.
+     */
+    static void rethrow(Throwable failure) throws DbException, TransactionAbortedException {
+        if (failure instanceof DbException)
+            throw (DbException) failure;
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        throw new DbException(failure.toString());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        int batches = Math.max(1, queueTuples / BATCH_TUPLES);
+        queue = new ArrayBlockingQueue<>(Math.max(batches, children.length));
+        running = new ArrayList<>();
+        stopped = false;
+        active = children.length;
+        batch = null;
+        for (OpIterator child : children)
+            running.add(workers.submit(() -> work(child)));
+    }
+
+    private void work(OpIterator child) {
+        Throwable failure = null;
+        try {
+            child.open();
+            List<Tuple> tuples = new ArrayList<>(BATCH_TUPLES);
+            while (!stopped && child.hasNext()) {
+                tuples.add(child.next());
+                if (tuples.size() == BATCH_TUPLES) {
+                    if (!send(new Message(tuples, null)))
+                        return;
+                    tuples = new ArrayList<>(BATCH_TUPLES);
+                }
+            }
+            if (!tuples.isEmpty() && !send(new Message(tuples, null)))
+                return;
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            child.close();
+        }
+        send(new Message(null, failure));
+    }
+
+    /**
+     * @return false if the consumer stopped before m could be queued
+     */
+    private boolean send(Message m) {
+        try {
+            while (!queue.offer(m, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped)
+                    return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (active == 0)
+                return null;
+            Message m;
+            try {
+                m = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            if (m.tuples != null) {
+                batch = m.tuples.iterator();
+                continue;
+            }
+            active--;
+            if (m.failure != null)
+                rethrow(m.failure);
+        }
+        return batch.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Stops the workers and waits for them to close their children, so no
+     * worker still reads pages after close returns.
+     */
+    public void close() {
+        super.close();
+        stopped = true;
+        if (running != null) {
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    // the worker reports its failures through the queue
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            running = null;
+        }
+        queue = null;
+        batch = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+}
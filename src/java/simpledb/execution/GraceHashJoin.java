@@ -0,0 +1,336 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.PackedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * GraceHashJoin is an equality join that holds at most a fixed number of
+ * tuples of its left (build) child in memory.
+ * <p>
+ * If the whole build side fits, it is hashed in memory and the right (probe)
+ * child is streamed against it once. Otherwise both children are hashed on
+ * the join key into {@link SpillFile#FANOUT} pairs of {@link SpillFile}s, and
+ * each pair is joined on its own. A build partition that is still too big is
+ * partitioned again with a different hash, up to {@link SpillFile#MAX_DEPTH}
+ * levels; past that its keys are too skewed to split, and it is joined in
+ * chunks of the memory budget, scanning its probe partition once per chunk.
+ * <p>
+ * Like {@link Join}, each result is the concatenation of the joining tuples
+ * from the left and right child.
+ */
+public class GraceHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of build tuples held in memory. */
+    public static final int DEFAULT_MEMORY_TUPLES = 100000;
+
+    private final JoinPredicate pred;
+    private final int memoryTuples;
+    private OpIterator child1, child2;
+
+    private transient TupleDesc comboTD;
+    // build tuples in memory, by join key
+    private transient Map<Field, List<Tuple>> table;
+    // where probe tuples come from: child2, or the current probe partition
+    private transient ProbeSource probe;
+    private transient SpillFile.Reader probeReader;
+    private transient Tuple t2;
+    private transient Iterator<Tuple> matches;
+    // partition pairs still to be joined, the next one first
+    private transient Deque<Partition> pending;
+    private transient Partition current;
+
+    private interface ProbeSource {
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * A build partition and its probe partition. Build tuples before offset
+     * have already been joined.
+     */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int depth;
+        int offset = 0;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+        }
+    }
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, with the default memory budget.
+     *
+     * @param p      The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left (build) relation to join
+     * @param child2 Iterator for the right (probe) relation to join
+     */
+    public GraceHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * @param memoryTuples The number of build tuples held in memory at once
+     */
+    public GraceHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("GraceHashJoin requires an EQUALS predicate");
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memoryTuples must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        comboTD = getTupleDesc();
+        table = new HashMap<>();
+        pending = new ArrayDeque<>();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        closeCurrent();
+        if (pending != null) {
+            for (Partition p : pending)
+                p.close();
+            pending = null;
+        }
+        table = null;
+        probe = null;
+        matches = null;
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Hashes child1 in memory, or partitions both children once it turns
+     * out not to fit.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (n == memoryTuples) {
+                partition(t);
+                return;
+            }
+            add(t);
+            n++;
+        }
+        probe = () -> child2.hasNext() ? child2.next() : null;
+    }
+
+    private void add(Tuple t) {
+        table.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+    }
+
+    /**
+     * Moves the tuples hashed so far, next and the rest of child1 into build
+     * partitions, and child2 into probe partitions.
+     */
+    private void partition(Tuple next) throws DbException, TransactionAbortedException {
+        Partition[] parts = newPartitions(0);
+        for (List<Tuple> l : table.values())
+            for (Tuple t : l)
+                buildPartition(parts, t, 0).add(t);
+        table.clear();
+        buildPartition(parts, next, 0).add(next);
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            buildPartition(parts, t, 0).add(t);
+        }
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            probePartition(parts, t, 0).add(t);
+        }
+        enqueue(parts);
+    }
+
+    /**
+     * Splits p one level further by a different hash of the join key.
+     */
+    private void repartition(Partition p) throws DbException {
+        Partition[] parts = newPartitions(p.depth + 1);
+        try {
+            SpillFile.Reader r = p.build.reader();
+            for (Tuple t = r.next(); t != null; t = r.next())
+                buildPartition(parts, t, p.depth + 1).add(t);
+            r.close();
+            r = p.probe.reader();
+            for (Tuple t = r.next(); t != null; t = r.next())
+                probePartition(parts, t, p.depth + 1).add(t);
+            r.close();
+        } catch (DbException e) {
+            for (Partition part : parts)
+                part.close();
+            throw e;
+        } finally {
+            p.close();
+        }
+        enqueue(parts);
+    }
+
+    private Partition[] newPartitions(int depth) throws DbException {
+        Partition[] parts = new Partition[SpillFile.FANOUT];
+        for (int i = 0; i < SpillFile.FANOUT; i++)
+            parts[i] = new Partition(new SpillFile(child1.getTupleDesc()),
+                    new SpillFile(child2.getTupleDesc()), depth);
+        return parts;
+    }
+
+    /**
+     * Queues the partitions that can produce results ahead of the pending
+     * ones, keeping their order, and drops the rest.
+     */
+    private void enqueue(Partition[] parts) {
+        for (int i = parts.length - 1; i >= 0; i--) {
+            if (parts[i].build.size() == 0 || parts[i].probe.size() == 0)
+                parts[i].close();
+            else
+                pending.addFirst(parts[i]);
+        }
+    }
+
+    private SpillFile buildPartition(Partition[] parts, Tuple t, int depth) {
+        return parts[SpillFile.partition(t.getField(pred.getField1()).hashCode(), depth)].build;
+    }
+
+    private SpillFile probePartition(Partition[] parts, Tuple t, int depth) {
+        return parts[SpillFile.partition(t.getField(pred.getField2()).hashCode(), depth)].probe;
+    }
+
+    /**
+     * Loads the next chunk of build tuples to join into memory.
+     *
+     * @return false if all partitions have been joined
+     */
+    private boolean nextPartition() throws DbException {
+        closeCurrent();
+        Partition p;
+        while ((p = pending.poll()) != null) {
+            int remaining = p.build.size() - p.offset;
+            if (p.offset == 0 && remaining > memoryTuples && p.depth < SpillFile.MAX_DEPTH) {
+                repartition(p);
+                continue;
+            }
+            table.clear();
+            SpillFile.Reader r = p.build.reader();
+            try {
+                for (int i = 0; i < p.offset; i++)
+                    r.next();
+                for (int i = 0; i < remaining && i < memoryTuples; i++)
+                    add(r.next());
+            } finally {
+                r.close();
+            }
+            p.offset += Math.min(remaining, memoryTuples);
+            // the rest of a skewed partition is joined afterwards
+            if (p.offset < p.build.size())
+                pending.addFirst(p);
+            current = p;
+            probeReader = p.probe.reader();
+            probe = probeReader::next;
+            return true;
+        }
+        return false;
+    }
+
+    private void closeCurrent() {
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (current != null) {
+            if (current.offset >= current.build.size())
+                current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext())
+                return merge(matches.next(), t2);
+            matches = null;
+            if (probe != null) {
+                Tuple t = probe.next();
+                if (t != null) {
+                    t2 = t;
+                    List<Tuple> l = table.get(t.getField(pred.getField2()));
+                    if (l != null)
+                        matches = l.iterator();
+                    continue;
+                }
+            }
+            if (!nextPartition()) {
+                probe = null;
+                return null;
+            }
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return PackedTuple.merge(t1, t2, comboTD);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
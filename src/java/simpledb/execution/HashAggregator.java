@@ -0,0 +1,503 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * The hash aggregation shared by {@link IntegerAggregator},
+ * {@link StringAggregator} and {@link Aggregate}. It groups on any number of
+ * fields and computes any number of aggregates per group in one pass.
+ * <p>
+ * Groups are numbered in the order they are first seen, and found through an
+ * open-addressing hash table over their group-by values. Each group keeps a
+ * count, and a sum, min and max per aggregate, in primitive arrays indexed by
+ * its number, so memory grows with the number of groups rather than the number
+ * of tuples.
+ * <p>
+ * Once memoryGroups groups are held, tuples of groups not yet seen are written
+ * to one of {@link SpillFile#FANOUT} partitions on disk by the hash of
+ * their group-by values, and each partition is aggregated the same way while
+ * the results are read.
+ * <p>
+ * Aggregates can also be computed in two steps, as when several threads each
+ * aggregate part of the input: {@link #partialOp} gives the op computed over
+ * each part, and {@link #finalOp} the op that merges the partial results. AVG
+ * is computed as SUM_COUNT, which outputs a sum and a count column, and merged
+ * with SC_AVG, which reads a sum column and the count column after it.
+ */
+class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups held in memory. */
+    static final int DEFAULT_MEMORY_GROUPS = 100000;
+
+    private static final Field[] NO_KEY = new Field[0];
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Op[] whats;
+    // false for aggregate fields that are strings, which only support COUNT
+    private final boolean[] intValues;
+    private final int memoryGroups;
+    private final int depth;
+
+    private TupleDesc td;
+    private int numGroups;
+    private Field[][] groupKeys = new Field[16][];
+    // group number + 1 per hash slot, 0 if empty
+    private int[] slots = new int[32];
+    private long[] counts = new long[16];
+    // indexed by group number * afields.length + aggregate number
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+    // the summed counts of SC_AVG aggregates
+    private long[] scCounts;
+
+    private transient SpillFile[] partitions;
+
+    HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what, boolean intValues,
+                   int memoryGroups) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+                gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype},
+                new int[]{afield}, new Op[]{what}, new boolean[]{intValues}, memoryGroups);
+    }
+
+    /**
+     * @param gbfields     the fields to group by, empty if there is no grouping
+     * @param gbfieldtypes the types of the fields to group by
+     * @param afields      the fields to aggregate over
+     * @param whats        whats[i] is the aggregate computed over afields[i]
+     * @param intValues    intValues[i] is false if afields[i] is a string field
+     * @param memoryGroups the number of groups held in memory
+     */
+    HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats,
+                   boolean[] intValues, int memoryGroups) {
+        this(gbfields, gbfieldtypes, afields, whats, intValues, memoryGroups, 0);
+    }
+
+    private HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats,
+                           boolean[] intValues, int memoryGroups, int depth) {
+        if (memoryGroups < 1)
+            throw new IllegalArgumentException("memoryGroups must be positive");
+        if (gbfields.length != gbfieldtypes.length)
+            throw new IllegalArgumentException("need one type per group by field");
+        if (afields.length == 0 || afields.length != whats.length
+                || afields.length != intValues.length)
+            throw new IllegalArgumentException("need one op per aggregate field");
+        for (int i = 0; i < whats.length; i++) {
+            if (!intValues[i] && whats[i] != Op.COUNT)
+                throw new IllegalArgumentException("only count is supported over strings");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.intValues = intValues.clone();
+        this.memoryGroups = memoryGroups;
+        this.depth = depth;
+        sums = new long[16 * afields.length];
+        mins = new int[16 * afields.length];
+        maxs = new int[16 * afields.length];
+        scCounts = new long[16 * afields.length];
+    }
+
+    /**
+     * @return the op computed over each part of the input when op is computed
+     *         in two steps
+     */
+    static Op partialOp(Op op) {
+        return op == Op.AVG ? Op.SUM_COUNT : op;
+    }
+
+    /**
+     * @return the op that merges the results of partialOp(op)
+     */
+    static Op finalOp(Op op) {
+        switch (op) {
+            case COUNT:
+            case SUM:
+                return Op.SUM;
+            case AVG:
+                return Op.SC_AVG;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * @return the number of output columns of op
+     */
+    static int width(Op op) {
+        return op == Op.SUM_COUNT ? 2 : 1;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (td == null)
+            td = resultDesc(tup.getTupleDesc());
+        Field[] key = NO_KEY;
+        if (gbfields.length > 0) {
+            key = new Field[gbfields.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = tup.getField(gbfields[i]);
+        }
+        int h = hash(key);
+        int g = groupOf(key, h);
+        if (g < 0) {
+            spill(tup, h);
+            return;
+        }
+        counts[g]++;
+        int base = g * afields.length;
+        for (int a = 0; a < afields.length; a++) {
+            if (!intValues[a])
+                continue;
+            int v = tup.getInt(afields[a]);
+            sums[base + a] += v;
+            if (whats[a] == Op.SC_AVG)
+                scCounts[base + a] += tup.getInt(afields[a] + 1);
+            if (v < mins[base + a])
+                mins[base + a] = v;
+            if (v > maxs[base + a])
+                maxs[base + a] = v;
+        }
+    }
+
+    /**
+     * Merges the selected rows of batch, which has the schema of the tuples
+     * passed to {@link #mergeTupleIntoGroup}. Aggregate values are read from
+     * the int columns of the batch; without grouping, each aggregate is one
+     * loop over its column.
+     */
+    void mergeBatch(TupleBatch batch) {
+        if (td == null)
+            td = resultDesc(batch.getTupleDesc());
+        int n = batch.size();
+        int[] sel = batch.selection();
+        int[][] cols = new int[afields.length][];
+        int[][] scCols = new int[afields.length][];
+        for (int a = 0; a < afields.length; a++) {
+            if (!intValues[a])
+                continue;
+            cols[a] = batch.intColumn(afields[a]);
+            if (whats[a] == Op.SC_AVG)
+                scCols[a] = batch.intColumn(afields[a] + 1);
+        }
+        if (gbfields.length == 0) {
+            // a single group, which is never written to disk
+            int g = groupOf(NO_KEY, hash(NO_KEY));
+            counts[g] += n;
+            for (int a = 0; a < afields.length; a++) {
+                if (cols[a] != null)
+                    mergeColumn(g * afields.length + a, cols[a], scCols[a], sel, n);
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            int r = sel == null ? i : sel[i];
+            Field[] key = new Field[gbfields.length];
+            for (int k = 0; k < key.length; k++)
+                key[k] = batch.getField(gbfields[k], r);
+            int h = hash(key);
+            int g = groupOf(key, h);
+            if (g < 0) {
+                spill(batch.getTuple(r), h);
+                continue;
+            }
+            counts[g]++;
+            int base = g * afields.length;
+            for (int a = 0; a < afields.length; a++) {
+                if (cols[a] == null)
+                    continue;
+                int v = cols[a][r];
+                sums[base + a] += v;
+                if (scCols[a] != null)
+                    scCounts[base + a] += scCols[a][r];
+                if (v < mins[base + a])
+                    mins[base + a] = v;
+                if (v > maxs[base + a])
+                    maxs[base + a] = v;
+            }
+        }
+    }
+
+    private void mergeColumn(int i, int[] col, int[] scCol, int[] sel, int n) {
+        long sum = 0;
+        int min = mins[i], max = maxs[i];
+        if (sel == null) {
+            for (int r = 0; r < n; r++) {
+                int v = col[r];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                int v = col[sel[j]];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        sums[i] += sum;
+        mins[i] = min;
+        maxs[i] = max;
+        if (scCol != null) {
+            long c = 0;
+            for (int j = 0; j < n; j++)
+                c += scCol[sel == null ? j : sel[j]];
+            scCounts[i] += c;
+        }
+    }
+
+    private int numColumns() {
+        int n = gbfields.length;
+        for (Op what : whats)
+            n += width(what);
+        return n;
+    }
+
+    private TupleDesc resultDesc(TupleDesc child) {
+        int n = numColumns();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = gbfieldtypes[i];
+            names[i] = child.getFieldName(gbfields[i]);
+        }
+        int c = gbfields.length;
+        for (int a = 0; a < afields.length; a++) {
+            for (int i = 0; i < width(whats[a]); i++) {
+                types[c] = Type.INT_TYPE;
+                names[c++] = child.getFieldName(afields[a]);
+            }
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private static int hash(Field[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the number of key's group, adding it if there is room, or -1 if
+     *         key's tuples go to disk
+     */
+    private int groupOf(Field[] key, int hash) {
+        int mask = slots.length - 1;
+        int h = hash & mask;
+        while (slots[h] != 0) {
+            int g = slots[h] - 1;
+            if (Arrays.equals(key, groupKeys[g]))
+                return g;
+            h = (h + 1) & mask;
+        }
+        // past the last depth partitions could not get any smaller
+        if (numGroups == memoryGroups && depth < SpillFile.MAX_DEPTH)
+            return -1;
+        int g = numGroups++;
+        if (g == groupKeys.length)
+            grow();
+        groupKeys[g] = key;
+        int base = g * afields.length;
+        Arrays.fill(mins, base, base + afields.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + afields.length, Integer.MIN_VALUE);
+        slots[h] = g + 1;
+        if (numGroups * 2 > slots.length)
+            rehash();
+        return g;
+    }
+
+    private void grow() {
+        int n = groupKeys.length * 2;
+        groupKeys = Arrays.copyOf(groupKeys, n);
+        counts = Arrays.copyOf(counts, n);
+        sums = Arrays.copyOf(sums, n * afields.length);
+        mins = Arrays.copyOf(mins, n * afields.length);
+        maxs = Arrays.copyOf(maxs, n * afields.length);
+        scCounts = Arrays.copyOf(scCounts, n * afields.length);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int h = hash(groupKeys[g]) & mask;
+            while (slots[h] != 0)
+                h = (h + 1) & mask;
+            slots[h] = g + 1;
+        }
+    }
+
+    private void spill(Tuple tup, int hash) {
+        try {
+            if (partitions == null)
+                partitions = new SpillFile[SpillFile.FANOUT];
+            int p = SpillFile.partition(hash, depth);
+            if (partitions[p] == null)
+                partitions[p] = new SpillFile(tup.getTupleDesc());
+            partitions[p].add(tup);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int value(int g, int a) {
+        int i = g * afields.length + a;
+        switch (whats[a]) {
+            case MIN:
+                return mins[i];
+            case MAX:
+                return maxs[i];
+            case SUM:
+                return (int) sums[i];
+            case AVG:
+                return (int) (sums[i] / counts[g]);
+            case SC_AVG:
+                return (int) (sums[i] / scCounts[i]);
+            default:
+                return (int) counts[g];
+        }
+    }
+
+    private Tuple result(int g) {
+        Tuple t = new Tuple(td);
+        Field[] key = groupKeys[g];
+        for (int i = 0; i < key.length; i++)
+            t.setField(i, key[i]);
+        int c = key.length;
+        for (int a = 0; a < afields.length; a++) {
+            if (whats[a] == Op.SUM_COUNT) {
+                t.setField(c++, new IntField((int) sums[g * afields.length + a]));
+                t.setField(c++, new IntField((int) counts[g]));
+            } else {
+                t.setField(c++, new IntField(value(g, a)));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return a OpIterator over the groups in memory, followed by the groups
+     *         of each partition on disk
+     */
+    public OpIterator iterator() {
+        return new ResultIterator();
+    }
+
+    /**
+     * Deletes the partitions written to disk.
+     */
+    public void close() {
+        if (partitions != null) {
+            for (SpillFile f : partitions)
+                if (f != null)
+                    f.close();
+            partitions = null;
+        }
+    }
+
+    private class ResultIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private boolean open = false;
+        private int group;
+        private int partition;
+        // the aggregation of the partition being read
+        private HashAggregator sub;
+        private OpIterator subIt;
+        private Tuple next;
+
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            group = 0;
+            partition = 0;
+            next = null;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            if (group < numGroups)
+                return result(group++);
+            while (true) {
+                if (subIt != null && subIt.hasNext())
+                    return subIt.next();
+                closeSub();
+                if (partitions == null || partition == partitions.length)
+                    return null;
+                SpillFile f = partitions[partition++];
+                if (f == null)
+                    continue;
+                sub = new HashAggregator(gbfields, gbfieldtypes, afields, whats, intValues,
+                        memoryGroups, depth + 1);
+                SpillFile.Reader r = f.reader();
+                try {
+                    for (Tuple t = r.next(); t != null; t = r.next())
+                        sub.mergeTupleIntoGroup(t);
+                } finally {
+                    r.close();
+                }
+                subIt = sub.iterator();
+                subIt.open();
+            }
+        }
+
+        private void closeSub() {
+            if (subIt != null) {
+                subIt.close();
+                subIt = null;
+            }
+            if (sub != null) {
+                sub.close();
+                sub = null;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("iterator is not open");
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            if (td != null)
+                return td;
+            Type[] types = Arrays.copyOf(gbfieldtypes, numColumns());
+            Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+            return new TupleDesc(types);
+        }
+
+        public void close() {
+            closeSub();
+            open = false;
+            next = null;
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.PackedTuple;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation. Read through
+ * {@link #nextBatch}, it probes the hash table with a batch of the right child
+ * at a time, and copies the right values of each match column by column.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
@@ -18,6 +22,15 @@ public class HashEquiJoin extends Operator {
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    // state of nextBatch: the right batch being probed, the index of the
+    // selected row after the one being probed, and its matches
+    transient private BatchIterator batchChild2;
+    transient private TupleBatch probe;
+    transient private int probePos;
+    transient private List<Tuple> matches;
+    transient private int matchPos;
+    transient private boolean probeDone;
+    transient private TupleBatch out;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -83,11 +96,20 @@ public class HashEquiJoin extends Operator {
         this.t2 = null;
         this.listIt = null;
         this.map.clear();
+        resetBatches();
+        out = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        resetBatches();
+    }
+
+    private void resetBatches() {
+        probe = null;
+        matches = null;
+        probeDone = false;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -113,16 +135,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return PackedTuple.merge(t1, t2, comboTD);
 
     }
 
@@ -155,6 +169,41 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild2 == null)
+            batchChild2 = BatchAdapter.of(child2);
+        if (out == null)
+            out = new TupleBatch(comboTD, DEFAULT_BATCH_ROWS);
+        out.clear();
+        int n1 = child1.getTupleDesc().numFields();
+        int n2 = child2.getTupleDesc().numFields();
+        while (!out.isFull() && !probeDone) {
+            if (matches != null && matchPos < matches.size()) {
+                Tuple left = matches.get(matchPos++);
+                int pr = probe.row(probePos - 1);
+                int row = out.addRow();
+                for (int i = 0; i < n1; i++)
+                    out.set(i, row, left, i);
+                for (int i = 0; i < n2; i++)
+                    out.copy(probe, i, pr, n1 + i, row);
+            } else if (probe != null && probePos < probe.size()) {
+                int pr = probe.row(probePos++);
+                matches = map.get(probe.getField(pred.getField2(), pr));
+                matchPos = 0;
+            } else {
+                matches = null;
+                probe = batchChild2.nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    probeDone = !loadMap();
+                }
+            }
+        }
+        return out.rows() == 0 ? null : out;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -164,6 +213,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        batchChild2 = null;
     }
 
 }
@@ -0,0 +1,235 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.PackedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins each left tuple with the right tuples found by
+ * looking up its join field in a B+ tree on the right join field, instead
+ * of scanning the right table.
+ * <p>
+ * The right child must be a BTreeScan keyed on the right join field,
+ * possibly under Filters, whose predicates are applied to the tuples
+ * found (see {@link #canProbe}). Left tuples are read a batch at a time and
+ * probed in key order, so that each distinct key is looked up once and
+ * consecutive lookups visit neighbouring leaf pages.
+ * <p>
+ * Like {@link Join}, each result is the concatenation of the joining tuples
+ * from the left and right child.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of left tuples sorted and probed together. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final JoinPredicate pred;
+    private final int batchSize;
+    private OpIterator child1, child2;
+
+    private transient TupleDesc comboTD;
+    private transient BTreeScan index;
+    // the compiled conjunction of the filters of the right child
+    private transient TupleFilter filter;
+    // the current batch of left tuples in key order; those in
+    // [groupStart, groupEnd) share the key being probed
+    private transient List<Tuple> batch;
+    private transient int groupStart, groupEnd;
+    private transient DbFileIterator probe;
+    // the right tuple found for the group, and the next left tuple to join it with
+    private transient Tuple t2;
+    private transient int next;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; one of EQUALS,
+     *               LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN, GREATER_THAN_OR_EQ
+     * @param child1 Iterator for the left (outer) relation to join
+     * @param child2 Iterator for the right (inner) relation to join; see
+     *               {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize The number of left tuples sorted and probed together
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int batchSize) {
+        if (!SortMergeJoin.supports(p.getOperator()))
+            throw new IllegalArgumentException("IndexNestedLoopJoin does not support " + p.getOperator());
+        if (!canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("right child is not an index on field " + p.getField2());
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return true if it is a BTreeScan keyed on field, or Filters over one
+     */
+    public static boolean canProbe(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        return it instanceof BTreeScan && ((BTreeScan) it).getKeyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        comboTD = getTupleDesc();
+        List<TupleFilter> filters = new ArrayList<>();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            filters.add(((Filter) it).getCondition().compile());
+            it = ((Filter) it).getChildren()[0];
+        }
+        filter = TupleFilter.and(filters);
+        index = (BTreeScan) it;
+        batch = new ArrayList<>();
+        groupStart = groupEnd = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        batch = null;
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        batch.clear();
+        groupStart = groupEnd = 0;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        t2 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null && next < groupEnd)
+                return merge(batch.get(next++), t2);
+            if (probe != null) {
+                t2 = nextMatch();
+                next = groupStart;
+                if (t2 != null)
+                    continue;
+                closeProbe();
+            }
+            // probe the next key
+            groupStart = groupEnd;
+            if (groupStart == batch.size()) {
+                if (!loadBatch())
+                    return null;
+                groupStart = 0;
+            }
+            Field key = batch.get(groupStart).getField(pred.getField1());
+            groupEnd = groupStart + 1;
+            while (groupEnd < batch.size() && key.compare(Predicate.Op.EQUALS,
+                    batch.get(groupEnd).getField(pred.getField1())))
+                groupEnd++;
+            probe = index.probe(new IndexPredicate(reverse(pred.getOperator()), key));
+            probe.open();
+        }
+    }
+
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (batch.size() < batchSize && child1.hasNext())
+            batch.add(child1.next());
+        batch.sort(new TupleComparator(pred.getField1(), true));
+        return !batch.isEmpty();
+    }
+
+    /**
+     * @return the next tuple found by the probe that passes the filters of
+     *         the right child, or null
+     */
+    private Tuple nextMatch() throws DbException, TransactionAbortedException {
+        while (probe.hasNext()) {
+            Tuple t = probe.next();
+            if (filter.test(t))
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * @return the operator op' such that right op' left whenever left op right
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return PackedTuple.merge(t1, t2, comboTD);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
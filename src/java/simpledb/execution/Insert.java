@@ -11,6 +11,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -20,6 +22,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    // tuples handed to the buffer pool at a time
+    private static final int BATCH_SIZE = 1024;
+
     private TransactionId t;
     private OpIterator child;
     private int tableId;
@@ -77,7 +82,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     private boolean is_inserted = false;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
@@ -87,15 +92,20 @@ public class Insert extends Operator {
         }
         is_inserted = true;
         int count = 0;
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while(child.hasNext()) {
             Tuple tuple = child.next();
-            try {
-                assert tuple != null;
-                Database.getBufferPool().insertTuple(t, tableId, tuple);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            assert tuple != null;
+            batch.add(tuple);
             count ++;
+            if(batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(t, tableId, batch.iterator());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                batch.clear();
+            }
         }
         Type[] typear = new Type[]{Type.INT_TYPE};
 //        String [] fieldar = new String[]{"count"};
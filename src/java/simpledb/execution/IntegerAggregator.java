@@ -1,14 +1,7 @@
 package simpledb.execution;
 
-import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
-import simpledb.storage.TupleDesc;
-import simpledb.transaction.TransactionAbortedException;
-
-import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -17,14 +10,7 @@ public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    private final int gbfield;
-    private final Type gbfieldtype;
-    private final int afield;
-    private final Op what;
-    private TupleDesc td;
-    private Map<Field, ArrayList<Integer>> map;
-    private ArrayList<Tuple> tuples;
-    private boolean get_td = false;
+    private final HashAggregator engine;
 
     /**
      * Aggregate constructor
@@ -40,16 +26,17 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // TODO: some code goes here
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.what = what;
-        if(gbfield == NO_GROUPING) {
-            tuples = new ArrayList<>();
-        }
-        else
-            map = new HashMap<>();
+        this(gbfield, gbfieldtype, afield, what, HashAggregator.DEFAULT_MEMORY_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor that keeps at most memoryGroups groups in memory
+     * 超过 memoryGroups 个分组后, 新分组的元组写到磁盘上
+     *
+     * @param memoryGroups the number of groups held in memory
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int memoryGroups) {
+        engine = new HashAggregator(gbfield, gbfieldtype, afield, what, true, memoryGroups);
     }
 
     /**
@@ -59,36 +46,7 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // TODO: some code goes here
-        String aname;
-        if(gbfield == NO_GROUPING){
-            if(!get_td) {
-                aname = tup.getTupleDesc().getFieldName(afield);
-                Type [] typeAr = new Type[]{Type.INT_TYPE};
-                String[] fieldAr = new String[]{aname};
-                td = new TupleDesc(typeAr, fieldAr);
-                get_td = true;
-            }
-            Tuple t = new Tuple(td);
-            t.setField(0, tup.getField(afield));
-            tuples.add(t);
-        }
-        else{
-            if(!get_td) {
-                aname = tup.getTupleDesc().getFieldName(afield);
-                String gbname = tup.getTupleDesc().getFieldName(gbfield);
-                Type [] typeAr = new Type[]{gbfieldtype, Type.INT_TYPE};
-                String[] fieldAr = new String[]{gbname, aname};
-                td = new TupleDesc(typeAr, fieldAr);
-                get_td = true;
-            }
-            Field gbFieldValue = tup.getField(gbfield);
-            Field aField = tup.getField(afield);
-            int aFieldValue = ((IntField)aField).getValue();
-            if(!map.containsKey(gbFieldValue))
-                map.put(gbFieldValue, new ArrayList<>());
-            map.get(gbFieldValue).add(aFieldValue);
-        }
+        engine.mergeTupleIntoGroup(tup);
     }
 
     /**
@@ -99,124 +57,12 @@ public class IntegerAggregator implements Aggregator {
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
-    private class g_OpIterator implements OpIterator{
-
-        private ArrayList<Field> gbField;
-        private int g_cur;
-        private boolean is_opened = false;
-
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            gbField = new ArrayList<>();
-            is_opened = true;
-//            System.out.println("已创建 array");
-            for(Field key: map.keySet()) {
-                gbField.add(key);
-            }
-            g_cur = 0;
-        }
-
-        @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            if(!is_opened) {
-                throw new IllegalStateException("没打开");
-            }
-            return g_cur != gbField.size();
-        }
-
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(!hasNext()) {
-                throw new NoSuchElementException();
-            }
-            int aFieldValue = 0;
-            ArrayList<Integer> in_tuples = map.get(gbField.get(g_cur));
-            if(what == Op.MIN) {
-                aFieldValue = Collections.min(in_tuples);
-            } else if(what == Op.MAX) {
-                aFieldValue = Collections.max(in_tuples);
-            } else if(what == Op.AVG) {
-                int sum = 0;
-                for (Integer in_tuple : in_tuples) {
-                    sum += in_tuple;
-                }
-                aFieldValue = sum / in_tuples.size();
-            } else if(what == Op.SUM) {
-                int sum = 0;
-                for (Integer in_tuple : in_tuples) {
-                    sum += in_tuple;
-                }
-                aFieldValue = sum;
-            } else if(what == Op.COUNT) {
-                aFieldValue = in_tuples.size();
-            }
-            Tuple res = new Tuple(td);
-            res.setField(0, gbField.get(g_cur++));
-            res.setField(1, new IntField(aFieldValue));
-            return res;
-        }
-
-        @Override
-        public void rewind() throws DbException, TransactionAbortedException {
-            close();
-            open();
-        }
-
-        @Override
-        public TupleDesc getTupleDesc() {
-            return td;
-        }
-
-        @Override
-        public void close() {
-            g_cur = 0;
-            gbField = null;
-            is_opened = false;
-        }
-    }
-
-    private class nog_OpIterator implements OpIterator {
-
-        private int cur = 0;
-
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-
-        }
-
-        @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            return cur < tuples.size();
-        }
-
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            return tuples.get(cur++);
-        }
-
-        @Override
-        public void rewind() throws DbException, TransactionAbortedException {
-            close();
-            open();
-        }
-
-        @Override
-        public TupleDesc getTupleDesc() {
-            return td;
-        }
-
-        @Override
-        public void close() {
-            cur = 0;
-        }
+    public OpIterator iterator() {
+        return engine.iterator();
     }
 
-
-    public OpIterator iterator() {
-        // TODO: some code goes here
-        if(gbfield != NO_GROUPING)
-            return new g_OpIterator();
-        else return new nog_OpIterator();
+    public void close() {
+        engine.close();
     }
 
 }
@@ -1,22 +1,36 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.PackedTuple;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: it reads the left child a block of pages
+ * at a time into memory, and scans the right child once per block, so the
+ * right child is rescanned once per block instead of once per left tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of pages of left tuples buffered per block. */
+    public static final int DEFAULT_BLOCK_PAGES = 64;
+
     private JoinPredicate p;
+    // p compiled when the operator is opened
+    private transient JoinFilter filter;
     private OpIterator child1;
     private OpIterator child2;
+    private final int blockPages;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -27,10 +41,21 @@ public class Join extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages The number of pages worth of left tuples to buffer per
+     *                   scan of the right child
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
         // TODO: some code goes here
+        if (blockPages < 1)
+            throw new IllegalArgumentException("blockPages must be positive");
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -71,13 +96,23 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        filter = p.compile(child1.getTupleDesc());
+        int tupleSize = child1.getTupleDesc().getSize();
+        blockTuples = Math.max(1, (int) Math.min(Integer.MAX_VALUE,
+                (long) blockPages * BufferPool.getPageSize() / tupleSize));
+        comboTD = getTupleDesc();
+        block = new ArrayList<>();
+        t2 = null;
+        loadBlock();
     }
 
     public void close() {
         // TODO: some code goes here
         super.close();
         child1.close();
-        child1.close();
+        child2.close();
+        block = null;
+        t2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -104,46 +139,50 @@ public class Join extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple t1 = null;
-    private Tuple t2 = null;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // TODO: some code goes here
-        if(t1 == null) {
-            if(child1.hasNext())
-                t1 = child1.next();
-            else
-                return null;
+        while (!block.isEmpty()) {
+            // join the current right tuple with the rest of the block
+            while (t2 != null && blockPos < block.size()) {
+                Tuple t1 = block.get(blockPos++);
+                if (filter.test(t1, t2))
+                    return merge(t1, t2);
+            }
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+            } else {
+                // the right child is done with this block: move to the next one
+                t2 = null;
+                if (loadBlock())
+                    child2.rewind();
+            }
         }
+        return null;
+    }
 
-        Tuple t = getTupleCompare();
-        if (t != null) return t;
-
-
-        while(child1.hasNext()) {
-            t1 = child1.next();
-            child2.rewind();
+    private transient TupleDesc comboTD;
+    // left tuples of the current block
+    private transient List<Tuple> block;
+    private transient int blockTuples;
+    // the right tuple being joined, and the next block tuple to try it with
+    private transient Tuple t2;
+    private transient int blockPos;
 
-            t = getTupleCompare();
-            if (t != null) return t;
-        }
-        return null;
+    /**
+     * Reads the next block of left tuples.
+     *
+     * @return false if the left child is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+        return !block.isEmpty();
     }
 
-    private Tuple getTupleCompare() throws DbException, TransactionAbortedException {
-        while(child2.hasNext()) {
-            t2 = child2.next();
-            if (p.filter(t1, t2)) {
-                Tuple t = new Tuple(getTupleDesc());
-                for (int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-                    t.setField(i, t1.getField(i));
-                }
-                for (int i = t1.getTupleDesc().numFields(); i < getTupleDesc().numFields(); i++) {
-                    t.setField(i, t2.getField(i - t1.getTupleDesc().numFields()));
-                }
-                return t;
-            }
-        }
-        return null;
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return PackedTuple.merge(t1, t2, comboTD);
     }
 
     @Override
@@ -156,7 +195,7 @@ public class Join extends Operator {
     public void setChildren(OpIterator[] children) {
         // TODO: some code goes here
         child1 = children[0];
-        child2 = children[0];
+        child2 = children[1];
     }
 
 }
@@ -0,0 +1,18 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+/**
+ * A join condition on a pair of tuples, compiled once per query into a lambda
+ * specialized on its op and field type.
+ *
+ * @see JoinPredicate#compile
+ */
+@FunctionalInterface
+public interface JoinFilter {
+
+    /**
+     * @return true if the pair of tuples satisfies the condition
+     */
+    boolean test(Tuple t1, Tuple t2);
+}
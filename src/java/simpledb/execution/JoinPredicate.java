@@ -1,7 +1,9 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
 
@@ -37,15 +39,47 @@ public class JoinPredicate implements Serializable {
 
     /**
      * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * made through Field's compare method; int fields are compared with
+     * {@link Tuple#getInt}, without a Field.
      *
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // TODO: some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return Predicate.compare(t1.getInt(field1), op, t2.getInt(field2));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
 
+    /**
+     * Compiles the predicate into a lambda specialized on its op and the type
+     * of the compared fields, with the same semantics as {@link #filter}.
+     *
+     * @param td1 the TupleDesc of the first tuples
+     */
+    public JoinFilter compile(TupleDesc td1) {
+        int f1 = field1, f2 = field2;
+        if (td1.getFieldType(field1) == Type.INT_TYPE) {
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+                case NOT_EQUALS:
+                    return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+                case GREATER_THAN:
+                    return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+                case GREATER_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+                case LESS_THAN:
+                    return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+                case LESS_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            }
+        }
+        Predicate.Op o = op;
+        return (t1, t2) -> t1.getField(f1).compare(o, t2.getField(f2));
+    }
+
     public int getField1() {
         // TODO: some code goes here
         return field1;
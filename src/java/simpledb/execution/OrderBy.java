@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.index.BTreeScan;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -9,18 +10,19 @@ import simpledb.transaction.TransactionAbortedException;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields. It sorts with an {@link ExternalSort}, so the child may hold
+ * more tuples than fit in memory.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
-    private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int memoryTuples;
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -30,47 +32,103 @@ public class OrderBy extends Operator {
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on orderbyFields[0], then on
+     * orderbyFields[1] among tuples equal on the first field, and so on.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc           asc[i] is true if orderbyFields[i] is sorted in
+     *                      ascending order.
+     * @param child         the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, ExternalSort.DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * @param memoryTuples the number of tuples held in memory while sorting.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryTuples) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per ORDER BY field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.memoryTuples = memoryTuples;
     }
 
+    /**
+     * @return true if the first ORDER BY field is sorted in ascending order.
+     */
     public boolean isASC() {
-        return this.asc;
+        return this.asc[0];
     }
 
+    /**
+     * @return the first ORDER BY field.
+     */
     public int getOrderByField() {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
 
     public String getOrderFieldName() {
-        return this.orderByFieldName;
+        return td.getFieldName(this.orderByFields[0]);
+    }
+
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return this.asc.clone();
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Returns whether it returns its tuples in ascending order of field, as
+     * B+ tree scans, ascending OrderBys, and Filters and EQUALS sort-merge
+     * joins over such iterators do.
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof SortMergeJoin) {
+            JoinPredicate p = ((SortMergeJoin) it).getJoinPredicate();
+            return p.getOperator() == Predicate.Op.EQUALS && p.getField1() == field;
+        }
+        return false;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort = new ExternalSort(new TupleComparator(orderByFields, asc), memoryTuples);
+        sort.sort(child);
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        sort.rewind();
     }
 
     /**
@@ -80,11 +138,8 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        return sort.next();
     }
 
     @Override
@@ -100,23 +155,30 @@ public class OrderBy extends Operator {
 }
 
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[]{field}, new boolean[]{asc});
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc[i] ? 1 : -1;
+            else
+                return asc[i] ? -1 : 1;
+        }
+        return 0;
     }
 
 }
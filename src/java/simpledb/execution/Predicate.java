@@ -1,7 +1,11 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -51,6 +55,10 @@ public class Predicate implements Serializable {
     private Field operand; // 操作的字段的值
     private Op op;  // 操作的运算符
     private int field;  // 操作的字段在tuple中的index
+    // 整数操作数的快速路径
+    private final boolean intOperand;
+    private final int intValue;
+    private transient TupleFilter compiled;
 
 
     /**
@@ -65,6 +73,8 @@ public class Predicate implements Serializable {
         this.op = op;
         this.operand = operand;
         this.field = field;
+        intOperand = operand instanceof IntField;
+        intValue = intOperand ? ((IntField) operand).getValue() : 0;
     }
 
     /**
@@ -95,14 +105,181 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method. The comparison is made by the compiled form of the predicate.
      *
      * @param t The tuple to compare against
      * @return true if the comparison is true, false otherwise.
+     * @see #compile
      */
     public boolean filter(Tuple t) {
         // TODO: some code goes here
-        return t.getField(field).compare(op, operand);
+        if (compiled == null)
+            compiled = compile();
+        return compiled.test(t);
+    }
+
+    /**
+     * Compiles the predicate into a lambda specialized on its op and the type
+     * of its operand, with the same semantics as Field.compare. Values are
+     * read with {@link Tuple#getInt} and {@link Tuple#getString}, without
+     * Fields.
+     * 编译成针对运算符和类型特化的lambda
+     */
+    public TupleFilter compile() {
+        int f = field;
+        if (intOperand) {
+            int v = intValue;
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return t -> t.getInt(f) == v;
+                case NOT_EQUALS:
+                    return t -> t.getInt(f) != v;
+                case GREATER_THAN:
+                    return t -> t.getInt(f) > v;
+                case GREATER_THAN_OR_EQ:
+                    return t -> t.getInt(f) >= v;
+                case LESS_THAN:
+                    return t -> t.getInt(f) < v;
+                case LESS_THAN_OR_EQ:
+                    return t -> t.getInt(f) <= v;
+            }
+        } else {
+            String v = ((StringField) operand).getValue();
+            switch (op) {
+                case EQUALS:
+                    return t -> t.getString(f).equals(v);
+                case NOT_EQUALS:
+                    return t -> !t.getString(f).equals(v);
+                case GREATER_THAN:
+                    return t -> t.getString(f).compareTo(v) > 0;
+                case GREATER_THAN_OR_EQ:
+                    return t -> t.getString(f).compareTo(v) >= 0;
+                case LESS_THAN:
+                    return t -> t.getString(f).compareTo(v) < 0;
+                case LESS_THAN_OR_EQ:
+                    return t -> t.getString(f).compareTo(v) <= 0;
+                case LIKE:
+                    return t -> t.getString(f).contains(v);
+            }
+        }
+        throw new IllegalStateException("impossible to reach here");
+    }
+
+    /**
+     * @return true if x op v holds, with the semantics of IntField.compare
+     */
+    public static boolean compare(int x, Op op, int v) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return x == v;
+            case NOT_EQUALS:
+                return x != v;
+            case GREATER_THAN:
+                return x > v;
+            case GREATER_THAN_OR_EQ:
+                return x >= v;
+            case LESS_THAN:
+                return x < v;
+            case LESS_THAN_OR_EQ:
+                return x <= v;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the predicate to the selected rows of batch, and writes those
+     * that pass to out, in order. out may be the selection vector of batch.
+     * Over an int column each comparison is a range check without a branch,
+     * in a loop over the int[] of the column.
+     *
+     * @param batch the rows to compare
+     * @param out   receives the rows that pass; it must have at least
+     *              batch.size() entries
+     * @return the number of rows written to out
+     */
+    public int filter(TupleBatch batch, int[] out) {
+        int[] sel = batch.selection();
+        int n = batch.size();
+        if (intOperand) {
+            int v = intValue;
+            int[] col = batch.intColumn(field);
+            if (op == Op.NOT_EQUALS)
+                return filterNotEquals(col, v, sel, n, out);
+            int lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    lo = v;
+                    hi = v;
+                    break;
+                case LESS_THAN:
+                    if (v == Integer.MIN_VALUE)
+                        return 0;
+                    hi = v - 1;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    hi = v;
+                    break;
+                case GREATER_THAN:
+                    if (v == Integer.MAX_VALUE)
+                        return 0;
+                    lo = v + 1;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    lo = v;
+                    break;
+            }
+            return filterRange(col, lo, hi, sel, n, out);
+        }
+        String[] col = batch.stringColumn(field);
+        StringField v = (StringField) operand;
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int r = sel == null ? i : sel[i];
+            out[k] = r;
+            if (new StringField(col[r], Type.STRING_LEN).compare(op, v))
+                k++;
+        }
+        return k;
+    }
+
+    // lo <= col[r] <= hi
+    private static int filterRange(int[] col, int lo, int hi, int[] sel, int n, int[] out) {
+        int k = 0;
+        if (sel == null) {
+            for (int r = 0; r < n; r++) {
+                int x = col[r];
+                out[k] = r;
+                k += (x >= lo & x <= hi) ? 1 : 0;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                int x = col[r];
+                out[k] = r;
+                k += (x >= lo & x <= hi) ? 1 : 0;
+            }
+        }
+        return k;
+    }
+
+    private static int filterNotEquals(int[] col, int v, int[] sel, int n, int[] out) {
+        int k = 0;
+        if (sel == null) {
+            for (int r = 0; r < n; r++) {
+                out[k] = r;
+                k += col[r] != v ? 1 : 0;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                out[k] = r;
+                k += col[r] != v ? 1 : 0;
+            }
+        }
+        return k;
     }
 
     /**
@@ -2,7 +2,9 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.PackedTuple;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -10,14 +12,23 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. The
+ * batches it returns share the columns of the batches of its child.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outFields;
+    private transient BatchIterator batchChild;
+    // copies a field of a child tuple to an output tuple
+    private interface ColumnCopy {
+        void copy(Tuple src, PackedTuple dst);
+    }
+    // one per output field, compiled when the operator is opened
+    private transient ColumnCopy[] copies;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -36,6 +47,9 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -53,6 +67,14 @@ public class Project extends Operator {
             TransactionAbortedException {
         child.open();
         super.open();
+        copies = new ColumnCopy[outFields.length];
+        for (int i = 0; i < outFields.length; i++) {
+            int from = outFields[i], to = i;
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                copies[i] = (src, dst) -> dst.setInt(to, src.getInt(from));
+            else
+                copies[i] = (src, dst) -> dst.copy(src, from, to);
+        }
     }
 
     public void close() {
@@ -66,7 +88,8 @@ public class Project extends Operator {
 
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the child
-     * operator, projecting out the fields from the tuple
+     * operator, projecting out the fields from the tuple with the copies
+     * compiled by open
      *
      * @return The next tuple, or null if there are no more tuples
      */
@@ -74,14 +97,20 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
+        PackedTuple newTuple = new PackedTuple(td);
         newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
-        }
+        for (ColumnCopy c : copies)
+            c.copy(t, newTuple);
         return newTuple;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null)
+            batchChild = BatchAdapter.of(child);
+        TupleBatch b = batchChild.nextBatch();
+        return b == null ? null : b.project(outFields, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -91,6 +120,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            batchChild = null;
         }
     }
 
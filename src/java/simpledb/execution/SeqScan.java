@@ -3,28 +3,42 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.DbFileIterator;
 import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). Read through {@link #nextBatch}, it copies the values of each tuple
+ * straight from its page into the columns of a batch.
+ * <p>
+ * A scan may carry predicates pushed down from a Filter (see
+ * {@link #pushDown}); it then returns only the tuples that pass all of them,
+ * testing them on the page bytes and skipping pages that cannot match.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
     private HeapFile heapFile;
-    private DbFileIterator dbFileIterator;
+    private final int readAhead;
+    // the pages scanned are [firstPage, endPage)
+    private final int firstPage;
+    private final int endPage;
+    private final List<Predicate> predicates;
+    private HeapFile.HeapFileIterator dbFileIterator;
+    private transient TupleBatch batch;
 
 
     /**
@@ -42,11 +56,98 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // TODO: some code goes here
+        this(tid, tableid, tableAlias, HeapFile.DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Creates a sequential scan that reads up to readAhead pages ahead of the
+     * page being scanned.
+     *
+     * @param readAhead the number of pages to prefetch, or 0 to disable read-ahead
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int readAhead) {
+        this(tid, tableid, tableAlias, readAhead, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over pages firstPage (inclusive) to endPage
+     * (exclusive) of the table.
+     *
+     * @param readAhead the number of pages to prefetch, or 0 to disable read-ahead
+     * @param firstPage the first page scanned
+     * @param endPage   the page after the last page scanned, or -1 to scan to
+     *                  the end of the table
+     * @see #split(int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int readAhead,
+                   int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, readAhead, firstPage, endPage, Collections.emptyList());
+    }
+
+    /**
+     * Creates a sequential scan over pages firstPage (inclusive) to endPage
+     * (exclusive) of the table that returns the tuples passing every predicate.
+     *
+     * @param predicates predicates over the fields of the table
+     * @see #SeqScan(TransactionId, int, String, int, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int readAhead,
+                   int firstPage, int endPage, List<Predicate> predicates) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.readAhead = readAhead;
         heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        dbFileIterator = heapFile.iterator(tid);
+        this.firstPage = firstPage;
+        this.endPage = endPage < 0 ? heapFile.numPages() : endPage;
+        this.predicates = Collections.unmodifiableList(new ArrayList<>(predicates));
+        dbFileIterator = heapFile.iterator(tid, this.firstPage, this.endPage, readAhead, this.predicates);
+    }
+
+    /**
+     * Splits the pages of this scan into at most n contiguous ranges of
+     * nearly equal size, one scan per range. Together the scans return the
+     * same tuples as this one, and each may run on its own thread.
+     * 按页范围切分 用于并行扫描
+     *
+     * @param n the number of scans wanted
+     * @return the scans, in page order
+     */
+    public SeqScan[] split(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        int pages = endPage - firstPage;
+        n = Math.max(1, Math.min(n, pages));
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            int from = firstPage + (int) ((long) pages * i / n);
+            int to = firstPage + (int) ((long) pages * (i + 1) / n);
+            scans[i] = new SeqScan(tid, tableid, tableAlias, readAhead, from, to, predicates);
+        }
+        return scans;
+    }
+
+    /**
+     * Returns a scan of the same pages that also tests predicates, on the
+     * page bytes, and returns only the tuples that pass all of them; a Filter
+     * with these predicates over this scan is then redundant.
+     * 谓词下推到页面扫描
+     *
+     * @param predicates predicates over the fields of the table
+     */
+    public SeqScan pushDown(List<Predicate> predicates) {
+        List<Predicate> all = new ArrayList<>(this.predicates);
+        all.addAll(predicates);
+        return new SeqScan(tid, tableid, tableAlias, readAhead, firstPage, endPage, all);
+    }
+
+    /**
+     * @return the predicates tested by this scan, empty if it returns every
+     *         tuple
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
     }
 
     /**
@@ -125,9 +226,16 @@ public class SeqScan implements OpIterator {
         return dbFileIterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), DEFAULT_BATCH_ROWS);
+        return dbFileIterator.fill(batch) == 0 ? null : batch;
+    }
+
     public void close() {
         // TODO: some code goes here
         dbFileIterator.close();
+        batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
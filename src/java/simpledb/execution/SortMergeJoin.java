@@ -0,0 +1,284 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.PackedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two children by reading both in ascending order of
+ * their join fields. A child that is already in that order (see
+ * {@link OrderBy#isSortedOn}) is read as is; otherwise it is sorted first
+ * with an {@link ExternalSort}.
+ * <p>
+ * For an EQUALS predicate both inputs are merged in one pass, buffering only
+ * the right tuples that share a join key. For a range predicate the tuples of
+ * one input that match a tuple of the other form a prefix of it, so each
+ * outer tuple rescans the sorted inner input only as far as its matches:
+ * the right input for &gt; and &gt;=, the left input for &lt; and &lt;=.
+ * <p>
+ * Like {@link Join}, each result is the concatenation of the joining tuples
+ * from the left and right child.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    // pred compiled when the operator is opened
+    private transient JoinFilter filter;
+    private final int memoryTuples;
+    private OpIterator child1, child2;
+
+    private transient TupleDesc comboTD;
+    private transient Input left, right;
+    // EQUALS: the left tuple being joined, the next unread right tuple, and
+    // the right tuples whose key equals that of left tuple
+    private transient Tuple lt, rt;
+    private transient List<Tuple> group;
+    private transient int groupPos;
+    // range predicates: the outer tuple whose matches are being read
+    private transient Tuple outerT;
+
+    /**
+     * A child read in ascending order of its join field.
+     */
+    private interface Input {
+        /**
+         * @return the next tuple, or null at the end
+         */
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void rewind() throws DbException, TransactionAbortedException;
+
+        void close();
+    }
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; one of EQUALS,
+     *               LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN, GREATER_THAN_OR_EQ
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * @param memoryTuples The number of tuples of a child held in memory while
+     *                     sorting it
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memoryTuples must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * @return true if SortMergeJoin can join on op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        comboTD = getTupleDesc();
+        filter = pred.compile(child1.getTupleDesc());
+        left = input(child1, pred.getField1());
+        right = input(child2, pred.getField2());
+        super.open();
+        start();
+    }
+
+    private Input input(OpIterator child, int field) throws DbException, TransactionAbortedException {
+        if (OrderBy.isSortedOn(child, field)) {
+            return new Input() {
+                public Tuple next() throws DbException, TransactionAbortedException {
+                    return child.hasNext() ? child.next() : null;
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    child.rewind();
+                }
+
+                public void close() {
+                }
+            };
+        }
+        ExternalSort sort = new ExternalSort(new TupleComparator(field, true), memoryTuples);
+        sort.sort(child);
+        return new Input() {
+            public Tuple next() throws DbException {
+                return sort.next();
+            }
+
+            public void rewind() throws DbException {
+                sort.rewind();
+            }
+
+            public void close() {
+                sort.close();
+            }
+        };
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        group = null;
+        groupPos = 0;
+        switch (pred.getOperator()) {
+        case EQUALS:
+            lt = left.next();
+            rt = right.next();
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            outerT = left.next();
+            break;
+        default:
+            outerT = right.next();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = right = null;
+        lt = rt = outerT = null;
+        group = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return fetchNextEquals();
+        boolean leftOuter = pred.getOperator() == Predicate.Op.GREATER_THAN
+                || pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+        Input inner = leftOuter ? right : left;
+        Input outer = leftOuter ? left : right;
+        while (outerT != null) {
+            Tuple in = inner.next();
+            if (in != null) {
+                Tuple t1 = leftOuter ? outerT : in;
+                Tuple t2 = leftOuter ? in : outerT;
+                if (filter.test(t1, t2))
+                    return merge(t1, t2);
+            }
+            // past the matches of outerT
+            outerT = outer.next();
+            inner.rewind();
+        }
+        return null;
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (group != null) {
+                if (groupPos < group.size())
+                    return merge(lt, group.get(groupPos++));
+                // the next left tuple may have the same key
+                lt = left.next();
+                groupPos = 0;
+                if (lt != null && compare(lt.getField(pred.getField1()),
+                        group.get(0).getField(pred.getField2())) == 0)
+                    continue;
+                group = null;
+            }
+            while (lt != null && rt != null) {
+                int c = compare(lt.getField(pred.getField1()), rt.getField(pred.getField2()));
+                if (c < 0)
+                    lt = left.next();
+                else if (c > 0)
+                    rt = right.next();
+                else
+                    break;
+            }
+            if (lt == null || rt == null)
+                return null;
+            group = new ArrayList<>();
+            Field key = rt.getField(pred.getField2());
+            while (rt != null && compare(rt.getField(pred.getField2()), key) == 0) {
+                group.add(rt);
+                rt = right.next();
+            }
+        }
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return PackedTuple.merge(t1, t2, comboTD);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by operators whose input
+ * does not fit in memory and read back sequentially. Tuples are stored in the
+ * same fixed-length format as on a HeapPage. The file is deleted when the
+ * SpillFile is closed.
+ * <p>
+ * Spill files are created in a temporary directory of their own, which is
+ * swept when the JVM exits, in case an operator was never closed.
+ * <p>
+ * Operators that split their input into spill files by a hash, such as
+ * {@link GraceHashJoin} and {@link HashAggregator}, share the fan-out, depth
+ * limit and hash function below.
+ */
+public class SpillFile implements Closeable {
+
+    /** Number of partitions an input is split into when it does not fit. */
+    public static final int FANOUT = 16;
+    /** Number of times a partition is split again before giving up. */
+    public static final int MAX_DEPTH = 3;
+
+    private static final File DIR = createDirectory();
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp", DIR);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the directory of the spill files of this JVM, and deletes it
+     * with what is left in it on exit.
+     *
+     * @return the directory, or null to use the default temporary directory
+     */
+    private static File createDirectory() {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("simpledb-spill").toFile();
+        } catch (IOException e) {
+            return null;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            File[] left = dir.listFiles();
+            if (left != null) {
+                for (File f : left)
+                    f.delete();
+            }
+            dir.delete();
+        }, "SpillFile-sweep"));
+        return dir;
+    }
+
+    /**
+     * Returns the partition, out of {@link #FANOUT}, of a tuple whose key has
+     * the given hash. Keys that share a partition at one depth are spread
+     * over different partitions at the next, unless they are equal.
+     */
+    public static int partition(int hash, int depth) {
+        int h = hash + depth * 0x61C88647;
+        h *= 0x9E3779B1;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added so far
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends t to the end of the file.
+     */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Returns a reader over the tuples added so far, from the start of the
+     * file. Tuples may still be added afterwards; the reader does not see them.
+     */
+    public Reader reader() throws DbException {
+        try {
+            out.flush();
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file))), size);
+        } catch (IOException e) {
+            throw new DbException("cannot read spill file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the file is deleted below anyway
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the tuples of a SpillFile in the order they were added.
+     */
+    public class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private int remaining;
+
+        private Reader(DataInputStream in, int size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        /**
+         * @return the next tuple, or null if all tuples have been read
+         */
+        public Tuple next() throws DbException {
+            if (remaining == 0)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written through this stream
+            }
+        }
+    }
+}
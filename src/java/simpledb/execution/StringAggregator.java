@@ -1,11 +1,7 @@
 package simpledb.execution;
 
-import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.*;
-import simpledb.transaction.TransactionAbortedException;
-
-import java.util.*;
+import simpledb.storage.Tuple;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -14,14 +10,7 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    private final int gbfield;
-    private final Type gbfieldtype;
-    private final int afield;
-    private final Op what;
-    private TupleDesc td;
-    private Map<Field, ArrayList<String>> map;
-    private ArrayList<Tuple> tuples;
-    private boolean get_td = false;
+    private final HashAggregator engine;
 
     /**
      * Aggregate constructor
@@ -34,19 +23,19 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // TODO: some code goes here
+        this(gbfield, gbfieldtype, afield, what, HashAggregator.DEFAULT_MEMORY_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor that keeps at most memoryGroups groups in memory
+     *
+     * @param memoryGroups the number of groups held in memory
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int memoryGroups) {
         if(what != Op.COUNT) {
             throw new IllegalStateException("op 必须是 count");
         }
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.what = what;
-        if(gbfield == NO_GROUPING) {
-            tuples = new ArrayList<>();
-        }
-        else
-            map = new HashMap<>();
+        engine = new HashAggregator(gbfield, gbfieldtype, afield, what, false, memoryGroups);
     }
 
     /**
@@ -55,36 +44,7 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // TODO: some code goes here
-        String aname;
-        if(gbfield == NO_GROUPING){
-            if(!get_td) {
-                aname = tup.getTupleDesc().getFieldName(afield);
-                Type [] typeAr = new Type[]{Type.STRING_TYPE};
-                String[] fieldAr = new String[]{aname};
-                td = new TupleDesc(typeAr, fieldAr);
-                get_td = true;
-            }
-            Tuple t = new Tuple(td);
-            t.setField(0, tup.getField(afield));
-            tuples.add(t);
-        }
-        else{
-            if(!get_td) {
-                aname = tup.getTupleDesc().getFieldName(afield);
-                String gbname = tup.getTupleDesc().getFieldName(gbfield);
-                Type [] typeAr = new Type[]{gbfieldtype, Type.INT_TYPE};
-                String[] fieldAr = new String[]{gbname, aname};
-                td = new TupleDesc(typeAr, fieldAr);
-                get_td = true;
-            }
-            Field gbField = tup.getField(gbfield);
-            Field aField = tup.getField(afield);
-            String aFieldValue = ((StringField)aField).getValue();
-            if(!map.containsKey(gbField))
-                map.put(gbField, new ArrayList<>());
-            map.get(gbField).add(aFieldValue);
-        }
+        engine.mergeTupleIntoGroup(tup);
     }
 
     /**
@@ -95,103 +55,12 @@ public class StringAggregator implements Aggregator {
      *         grouping. The aggregateVal is determined by the type of
      *         aggregate specified in the constructor.
      */
-    private class g_OpIterator implements OpIterator{
-
-        private ArrayList<Field> gbField;
-        private int g_cur;
-
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            gbField = new ArrayList<>();
-            for(Field key: map.keySet()) {
-                gbField.add(key);
-            }
-            g_cur = 0;
-        }
-
-        @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            return g_cur < gbField.size();
-        }
-
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(!hasNext()) {
-                throw new NoSuchElementException();
-            }
-            int aFieldCount = 0;
-            ArrayList<String> in_tuples = map.get(gbField.get(g_cur));
-
-            if(what == Op.COUNT) {
-                aFieldCount = in_tuples.size();
-            }
-            Tuple res = new Tuple(td);
-            res.setField(0, gbField.get(g_cur));
-            res.setField(1, new IntField(aFieldCount));
-            g_cur ++;
-            return res;
-        }
-
-        @Override
-        public void rewind() throws DbException, TransactionAbortedException {
-            close();
-            open();
-        }
-
-        @Override
-        public TupleDesc getTupleDesc() {
-            return td;
-        }
-
-        @Override
-        public void close() {
-            g_cur = 0;
-            gbField = null;
-        }
-    }
-
-    private class nog_OpIterator implements OpIterator {
-
-        private int cur;
-
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            cur = 0;
-        }
-
-        @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            return cur < tuples.size();
-        }
-
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            return tuples.get(cur++);
-        }
-
-        @Override
-        public void rewind() throws DbException, TransactionAbortedException {
-            close();
-            open();
-        }
-
-        @Override
-        public TupleDesc getTupleDesc() {
-            return td;
-        }
-
-        @Override
-        public void close() {
-            cur = 0;
-        }
+    public OpIterator iterator() {
+        return engine.iterator();
     }
 
-
-    public OpIterator iterator() {
-        // TODO: some code goes here
-        if(gbfield != NO_GROUPING)
-            return new g_OpIterator();
-        else return new nog_OpIterator();
+    public void close() {
+        engine.close();
     }
 
 }
@@ -0,0 +1,139 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopK is an operator that implements ORDER BY ... LIMIT k. Instead of
+ * sorting the whole child like {@link OrderBy}, it keeps the k first tuples
+ * seen so far in a bounded heap, which takes O(n log k) time and O(k) memory.
+ * <p>
+ * If the child already returns its tuples in the requested order (see
+ * {@link OrderBy#isSortedOn}), TopK returns its first k tuples and
+ * stops reading it.
+ */
+public class TopK extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int k;
+
+    // the k first tuples in order, unless the child is already in order
+    private transient List<Tuple> top;
+    private transient int pos;
+
+    /**
+     * @param orderbyFields the fields to which the sort is applied; see
+     *                      {@link OrderBy#OrderBy(int[], boolean[], OpIterator)}.
+     * @param asc           asc[i] is true if orderbyFields[i] is sorted in
+     *                      ascending order.
+     * @param k             the number of tuples to return.
+     * @param child         the tuples to sort.
+     */
+    public TopK(int[] orderbyFields, boolean[] asc, int k, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per ORDER BY field");
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative");
+        this.child = child;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.k = k;
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return true if the child returns its tuples in the requested order
+     */
+    public boolean isChildSorted() {
+        return orderByFields.length == 1 && asc[0]
+                && OrderBy.isSortedOn(child, orderByFields[0]);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top = isChildSorted() ? null : selectTop();
+        pos = 0;
+        super.open();
+    }
+
+    private List<Tuple> selectTop() throws DbException, TransactionAbortedException {
+        Comparator<Tuple> cmp = new TupleComparator(orderByFields, asc);
+        if (k == 0)
+            return new ArrayList<>();
+        // the head is the last of the k first tuples, the first to drop
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.min(k, 1024), cmp.reversed());
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < k)
+                heap.add(t);
+            else if (cmp.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        List<Tuple> l = new ArrayList<>(heap);
+        l.sort(cmp);
+        return l;
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (top == null)
+            child.rewind();
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first k tuples of the
+     * child in order.
+     *
+     * @return The next tuple, or null if k tuples have been returned
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (top != null)
+            return pos < top.size() ? top.get(pos++) : null;
+        if (pos == k || !child.hasNext())
+            return null;
+        pos++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
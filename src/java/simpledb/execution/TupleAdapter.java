@@ -0,0 +1,67 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Returns the tuples of a BatchIterator one at a time, while reading it
+ * through nextBatch. A plan whose operators all implement batches runs
+ * batch at a time below this adapter. The tuples returned have no record id.
+ */
+public class TupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private transient TupleBatch batch;
+    // index of the next selected row of batch to return
+    private int pos;
+
+    public TupleAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos == batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = BatchAdapter.of(children[0]);
+    }
+}
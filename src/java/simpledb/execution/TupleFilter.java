@@ -0,0 +1,51 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.List;
+
+/**
+ * A condition on a tuple, compiled once per query into a tree of lambdas
+ * specialized on its ops and operand types, so that the JIT can inline it
+ * instead of interpreting the op for each tuple.
+ *
+ * @see Predicate#compile
+ */
+@FunctionalInterface
+public interface TupleFilter {
+
+    /**
+     * @return true if t passes the filter
+     */
+    boolean test(Tuple t);
+
+    /**
+     * @return a filter passed by the tuples that pass every filter of
+     *         filters, testing them in order until one fails
+     */
+    static TupleFilter and(List<TupleFilter> filters) {
+        if (filters.isEmpty())
+            return t -> true;
+        TupleFilter f = filters.get(0);
+        for (int i = 1; i < filters.size(); i++) {
+            TupleFilter a = f, b = filters.get(i);
+            f = t -> a.test(t) && b.test(t);
+        }
+        return f;
+    }
+
+    /**
+     * @return a filter passed by the tuples that pass any filter of filters,
+     *         testing them in order until one passes
+     */
+    static TupleFilter or(List<TupleFilter> filters) {
+        if (filters.isEmpty())
+            return t -> false;
+        TupleFilter f = filters.get(0);
+        for (int i = 1; i < filters.size(); i++) {
+            TupleFilter a = f, b = filters.get(i);
+            f = t -> a.test(t) || b.test(t);
+        }
+        return f;
+    }
+}
@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -28,6 +29,8 @@ public class BTreeScan implements OpIterator {
     private transient DbFileIterator it;
     private String tablename;
     private String alias;
+    private int tableid;
+    private int keyField;
 
     /**
      * Creates a B+ tree scan over the specified table as a part of the
@@ -65,6 +68,23 @@ public class BTreeScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the field the scanned tuples are sorted on, or -1 if the table
+     *         is not a B+ tree
+     */
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the scanned B+ tree that match
+     * ipred, independent of this scan and of its own index predicate. Used to
+     * look up keys in the index instead of scanning it.
+     */
+    public DbFileIterator probe(IndexPredicate ipred) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -79,7 +99,10 @@ public class BTreeScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.isOpen = false;
         this.alias = tableAlias;
+        this.tableid = tableid;
         this.tablename = Database.getCatalog().getTableName(tableid);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        this.keyField = f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
         if (ipred == null) {
             this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
         } else {
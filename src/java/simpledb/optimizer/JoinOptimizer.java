@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -17,6 +19,9 @@ import java.util.*;
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    // estimated {card1, card2, cost1, cost2} of the inputs of each join in
+    // the order orderJoins returned, so physicalJoin can pick an algorithm
+    private final Map<LogicalJoinNode, double[]> inputEstimates = new IdentityHashMap<>();
 
     /**
      * Constructor
@@ -43,6 +48,24 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1, -1, 0, 0);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * given estimates of the inputs: an equijoin whose left side fits in
+     * memory is hashed in memory, and one whose left side may not is
+     * partitioned to disk; a range join over unsorted inputs is sort-merged
+     * only if that is estimated to cost less than block nested loops.
+     *
+     * @param card1 The estimated cardinality of plan1, or -1 if unknown
+     * @param card2 The estimated cardinality of plan2, or -1 if unknown
+     * @param cost1 The estimated cost of one full scan of plan1
+     * @param cost2 The estimated cost of one full scan of plan2
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             int card1, int card2, double cost1, double cost2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -67,12 +90,44 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // inputs already in join order are merged without sorting or hashing
+        boolean sorted1 = OrderBy.isSortedOn(plan1, t1id);
+        boolean sorted2 = OrderBy.isSortedOn(plan2, t2id);
+        boolean estimated = card1 >= 0 && card2 >= 0;
+        if (SortMergeJoin.supports(lj.p) && IndexNestedLoopJoin.canProbe(plan2, t2id))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else if (SortMergeJoin.supports(lj.p) && sorted1 && sorted2)
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS && card1 >= 0 && card1 <= GraceHashJoin.DEFAULT_MEMORY_TUPLES)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new GraceHashJoin(p, plan1, plan2);
+        else if (SortMergeJoin.supports(lj.p) && estimated
+                && sortMergeRangeCost(lj.p, card1, card2, cost1, cost2, sorted1, sorted2)
+                < blockNestedLoopsCost(card1, card2, cost1, cost2))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p, plan1, plan2);
 
         return j;
 
     }
 
+    /**
+     * Return best iterator for computing lj, one of the joins in the order
+     * {@link #orderJoins} returned, using the cardinalities and costs it
+     * estimated for the inputs of lj.
+     *
+     * @see #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator, int, int, double, double)
+     */
+    public OpIterator physicalJoin(LogicalJoinNode lj,
+                                   OpIterator plan1, OpIterator plan2) throws ParsingException {
+        double[] e = inputEstimates.get(lj);
+        if (e == null)
+            return instantiateJoin(lj, plan1, plan2);
+        return instantiateJoin(lj, plan1, plan2, (int) e[0], (int) e[1], e[2], e[3]);
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -95,19 +150,118 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                isIndexed(j.t2Alias, j.f2PureName));
+    }
+
+    /**
+     * @param innerIndexed Whether the right-hand side is a base table with a
+     *                     B+ tree on the join field
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+                                    double cost1, double cost2, boolean innerIndexed) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            if (innerIndexed && SortMergeJoin.supports(j.p)) {
+                // IndexNestedLoopJoin looks each left tuple up in the tree;
+                // probes go in key order, so they read each leaf about once
+                double output = j.p == Predicate.Op.EQUALS ? card1 : 0.3 * card1 * card2;
+                return cost1 + Math.min(card1 * (double) TableStats.IOCOSTPERPAGE, cost2)
+                        + card1 * Math.log(Math.max(card2, 2)) / Math.log(2) + output;
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                // HashEquiJoin reads each side once and hashes or probes
+                // every tuple; if the left side does not fit in memory, a
+                // GraceHashJoin also writes both sides to partitions and
+                // reads them back
+                double cost = cost1 + cost2 + card1 + card2;
+                if (card1 > GraceHashJoin.DEFAULT_MEMORY_TUPLES)
+                    cost += 2 * (cost1 + cost2);
+                return cost;
+            }
+            double cost = blockNestedLoopsCost(card1, card2, cost1, cost2);
+            if (SortMergeJoin.supports(j.p)) {
+                // a range join over unsorted inputs is sort-merged if cheaper
+                cost = Math.min(cost, sortMergeRangeCost(j.p, card1, card2,
+                        cost1, cost2, false, false));
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * Estimate the cost of a block nested-loops {@link Join}: one scan of the
+     * right side per block of left pages, where cost1 / IOCOSTPERPAGE
+     * estimates the pages, and a predicate test per pair of tuples.
+     */
+    private static double blockNestedLoopsCost(int card1, int card2,
+                                               double cost1, double cost2) {
+        double blocks = Math.max(1, Math.ceil(
+                cost1 / TableStats.IOCOSTPERPAGE / Join.DEFAULT_BLOCK_PAGES));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin} on a range predicate. Each
+     * side is read once and sorted unless it is already sorted. Then every
+     * outer tuple rewinds the inner side and reads it up to the end of its
+     * matches; an inner side that is rewound by rescanning its child, or its
+     * sorted runs on disk, is read from disk again each time.
+     */
+    private static double sortMergeRangeCost(Predicate.Op op, int card1, int card2,
+                                             double cost1, double cost2,
+                                             boolean sorted1, boolean sorted2) {
+        boolean leftOuter = op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        int outerCard = leftOuter ? card1 : card2;
+        int innerCard = leftOuter ? card2 : card1;
+        double innerCost = leftOuter ? cost2 : cost1;
+        boolean innerSorted = leftOuter ? sorted2 : sorted1;
+        // as estimateTableJoinCardinality guesses for range predicates
+        double matches = 0.3 * card1 * card2;
+        double cost = cost1 + cost2 + outerCard + 2 * matches;
+        if (!sorted1)
+            cost += sortCost(card1, cost1);
+        if (!sorted2)
+            cost += sortCost(card2, cost2);
+        if (innerSorted || innerCard > GraceHashJoin.DEFAULT_MEMORY_TUPLES)
+            cost += outerCard * 0.3 * innerCost;
+        return cost;
+    }
+
+    /**
+     * @return true if alias is a B+ tree table keyed on field, so that an
+     *         IndexNestedLoopJoin can look up its tuples
+     */
+    private boolean isIndexed(String alias, String field) {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(id);
+        if (!(f instanceof BTreeFile))
+            return false;
+        try {
+            return f.getTupleDesc().indexForFieldName(field) == ((BTreeFile) f).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
         }
     }
 
+    /**
+     * Estimate the cost of sorting card tuples that cost scanCost to read:
+     * the comparisons, plus writing and reading the runs back if they do
+     * not fit in memory.
+     */
+    private static double sortCost(int card, double scanCost) {
+        double cost = card * Math.log(Math.max(card, 2)) / Math.log(2);
+        if (card > GraceHashJoin.DEFAULT_MEMORY_TUPLES)
+            cost += 2 * scanCost;
+        return cost;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -235,6 +389,8 @@ public class JoinOptimizer {
         }
         Set<LogicalJoinNode> s_joins = new HashSet<>(joins);
         List<LogicalJoinNode> res = pc.getOrder(s_joins);
+        if (res != null)
+            recordInputEstimates(res, pc, stats, filterSelectivities);
         if(explain) {
             printJoins(res, pc, stats, filterSelectivities);
         }
@@ -243,6 +399,42 @@ public class JoinOptimizer {
 
     // ===================== Private Methods =================================
 
+    /**
+     * Records the estimated cardinality and cost of the inputs of each join
+     * of order. An input is the result of the joins before it, if they
+     * include its table, or else the filtered table.
+     */
+    private void recordInputEstimates(List<LogicalJoinNode> order, PlanCache pc,
+                                      Map<String, TableStats> stats,
+                                      Map<String, Double> filterSelectivities) {
+        inputEstimates.clear();
+        List<LogicalJoinNode> done = new ArrayList<>();
+        for (LogicalJoinNode j : order) {
+            if (!(j instanceof LogicalSubplanJoinNode)) {
+                double[] left = estimateInput(j.t1Alias, done, pc, stats, filterSelectivities);
+                double[] right = estimateInput(j.t2Alias, done, pc, stats, filterSelectivities);
+                inputEstimates.put(j, new double[]{left[0], right[0], left[1], right[1]});
+            }
+            done.add(j);
+        }
+    }
+
+    /**
+     * @return the estimated {cardinality, cost} of the input of a join that
+     *         reads table alias, after the joins done
+     */
+    private double[] estimateInput(String alias, List<LogicalJoinNode> done, PlanCache pc,
+                                   Map<String, TableStats> stats,
+                                   Map<String, Double> filterSelectivities) {
+        if (doesJoin(done, alias)) {
+            Set<LogicalJoinNode> s = new HashSet<>(done);
+            return new double[]{pc.getCard(s), pc.getCost(s)};
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(this.p.getTableId(alias)));
+        return new double[]{s.estimateTableCardinality(filterSelectivities.get(alias)),
+                s.estimateScanCost()};
+    }
+
     /**
      * This is a helper method that computes the cost and cardinality of joining
      * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
@@ -295,6 +487,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // only a base table can be looked up in its index
+        boolean t1base = true, t2base = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -325,6 +519,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                t1base = false;
                 t1cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -339,6 +534,7 @@ public class JoinOptimizer {
                 rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
                         j.f2PureName);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
+                t2base = false;
                 // (both
                 // shouldn't be)
                 t2cost = prevBestCost; // left side just has cost of whatever
@@ -359,10 +555,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                t2base && isIndexed(j.t2Alias, j.f2PureName));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                t1base && isIndexed(j2.t2Alias, j2.f2PureName));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
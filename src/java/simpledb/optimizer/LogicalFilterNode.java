@@ -2,12 +2,19 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A LogicalFilterNode represents the parameters of a filter in the WHERE clause of a query.
  * <p>
  * Filter is of the form t.f p c
  * <p>
  * Where t is a table, f is a field in t, p is a predicate, and c is a constant
+ * <p>
+ * A filter may also be an AND or OR of other filters over the same table; it
+ * then has operands, and no field, predicate or constant.
  */
 public class LogicalFilterNode {
     /**
@@ -30,6 +37,17 @@ public class LogicalFilterNode {
 
     public final String fieldQuantifiedName;
 
+    /**
+     * The operands of an AND or OR filter, empty for a comparison
+     */
+    public final List<LogicalFilterNode> operands;
+
+    /**
+     * true if this filter is an OR of its operands, false if it is an AND
+     * or a comparison
+     */
+    public final boolean or;
+
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
         tableAlias = table;
         p = pred;
@@ -40,5 +58,20 @@ public class LogicalFilterNode {
         else
             fieldPureName = field;
         this.fieldQuantifiedName = tableAlias + "." + fieldPureName;
+        operands = Collections.emptyList();
+        or = false;
+    }
+
+    /**
+     * Creates an AND or OR of filters over table.
+     */
+    public LogicalFilterNode(String table, boolean or, List<LogicalFilterNode> operands) {
+        tableAlias = table;
+        p = null;
+        c = null;
+        fieldPureName = null;
+        fieldQuantifiedName = null;
+        this.operands = Collections.unmodifiableList(new ArrayList<>(operands));
+        this.or = or;
     }
 }
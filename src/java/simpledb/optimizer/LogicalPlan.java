@@ -5,6 +5,8 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -16,9 +18,8 @@ import java.util.*;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields and aggregates.
+ * All aggregates are computed by a single {@link Aggregate} node.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -33,15 +34,18 @@ public class LogicalPlan {
     private final Map<String, Integer> tableMap;        // 表别名映射到表id
 
     private final List<LogicalSelectListNode> selectList;   // select投影
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> groupByFields = new ArrayList<>();
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private int limit = -1;     // -1 表示没有 LIMIT
     private String query;
     //    private Query owner;
 
+    // the number of threads a plan splits a scan or an aggregation over (并行度)
+    private static int parallelism = 1;
+
     /**
      * Constructor -- generate an empty logical plan
      */
@@ -67,6 +71,26 @@ public class LogicalPlan {
         this.query = query;
     }
 
+    /**
+     * Sets the number of threads the plans built afterwards split filtered
+     * scans and aggregations over, by page range. The default is 1, which
+     * keeps every plan on the thread that runs it.
+     *
+     * @see Gather#split
+     */
+    public static void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        parallelism = n;
+    }
+
+    /**
+     * @return the number of threads set by {@link #setParallelism}
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
     /**
      * Get the query text associated with this plan via {@link #setQuery}.
      */
@@ -107,12 +131,48 @@ public class LogicalPlan {
      */
     public void addFilter(String field, Predicate.Op p, String
             constantValue) throws ParsingException {
+        filters.add(filterNode(field, p, constantValue));
+    }
+
+    /**
+     * Add a new filter, which may be an AND or OR of comparisons, to the
+     * logical plan. Filters on the same table are tested by a single Filter,
+     * as the AND of all of them.
+     *
+     * @param lf a filter from {@link #filterNode}
+     */
+    public void addFilter(LogicalFilterNode lf) {
+        filters.add(lf);
+    }
 
+    /**
+     * Creates the filter of a comparison, without adding it to the plan.
+     *
+     * @see #addFilter(String, Predicate.Op, String)
+     */
+    public LogicalFilterNode filterNode(String field, Predicate.Op p, String constantValue)
+            throws ParsingException {
         field = disambiguateName(field);    // tablename.name
         String table = field.split("[.]")[0];   //  tablename
         // 在某个表的某个字段上执行过滤操作
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.add(lf);
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
+    }
+
+    /**
+     * Creates the AND or OR of filters, without adding it to the plan.
+     *
+     * @param or       true for an OR, false for an AND
+     * @param operands filters from {@link #filterNode}
+     * @throws ParsingException if the operands are not all over the same table
+     */
+    public LogicalFilterNode filterNode(boolean or, List<LogicalFilterNode> operands)
+            throws ParsingException {
+        String table = operands.get(0).tableAlias;
+        for (LogicalFilterNode lf : operands) {
+            if (!lf.tableAlias.equals(table))
+                throw new ParsingException("AND and OR of filters over several tables are currently unsupported");
+        }
+        return new LogicalFilterNode(table, or, operands);
     }
 
     /**
@@ -207,29 +267,65 @@ public class LogicalPlan {
 
     /**
      * Add an aggregate over the field with the specified grouping to
-     * the query.  SimpleDb only supports a single aggregate
-     * expression and GROUP BY field.
+     * the query.
      * groupby的操作
      *
      * @param op     the aggregation operator
      * @param afield the field to aggregate over
-     * @param gfield the field to group by
+     * @param gfield the field to group by, or null
      * @throws ParsingException
      */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield = disambiguateName(afield);
         if (gfield != null)
-            gfield = disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /**
+     * Add an aggregate to the query. All aggregates are computed in one pass
+     * over the fields added with {@link #addGroupBy}.
+     *
+     * @param op     the aggregation operator
+     * @param afield the field to aggregate over
+     * @throws ParsingException
+     */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield = disambiguateName(afield);
+        getAggOp(op);
+        aggOps.add(op);
+        aggFields.add(afield);
     }
 
     /**
-     * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-     * a single ORDER BY field.
-     * 排序   只支持按一个字段做排序
+     * Add a GROUP BY field. Groups are formed on all the fields added, and
+     * group by fields come before the aggregates in the aggregate's output.
+     * 分组字段 可以有多个
+     *
+     * @param gfield the field to group by
+     * @throws ParsingException
+     */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield = disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /**
+     * @return the index of the aggregate op(fname), or -1 if the plan has
+     *         no such aggregate
+     */
+    private int aggIndex(String op, String fname) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(fname))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Add an ORDER BY expression in the specified order on the specified field. Fields are sorted
+     * on in the order they are added.
+     * 排序   按添加的顺序依次比较各字段
      *
      * @param field the field to order by
      * @param asc   true if should be ordered in ascending order, false for descending order
@@ -237,9 +333,22 @@ public class LogicalPlan {
      */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field = disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /**
+     * Add a LIMIT clause: only the first n result tuples are returned. With an ORDER BY,
+     * the plan keeps only the first n tuples in order instead of sorting them all.
+     * 限制返回的行数
+     *
+     * @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+     */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
     }
 
     /**
@@ -302,6 +411,78 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Converts lf into a condition over td and adds it to out. The operands of
+     * an AND are ordered by increasing estimated selectivity, and those of an
+     * OR by decreasing selectivity, so that the operands most likely to decide
+     * a row are tested first; Filter adjusts the order while it runs.
+     *
+     * @return the estimated selectivity of lf
+     */
+    private double filterCondition(LogicalFilterNode lf, TupleDesc td, TableStats s,
+                                   List<CompoundPredicate> out) throws ParsingException {
+        if (lf.operands.isEmpty()) {
+            Field f;
+            Type ftyp;
+            int field;
+            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+                field = td.indexForFieldName(lf.fieldQuantifiedName);
+                ftyp = td.getFieldType(field);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            if (ftyp == Type.INT_TYPE)
+                f = new IntField(new Integer(lf.c));
+            else
+                f = new StringField(lf.c, Type.STRING_LEN);
+
+            out.add(CompoundPredicate.of(new Predicate(field, lf.p, f)));
+            return s.estimateSelectivity(field, lf.p, f);
+        }
+
+        List<CompoundPredicate> operands = new ArrayList<>();
+        List<Double> sels = new ArrayList<>();
+        for (LogicalFilterNode op : lf.operands)
+            sels.add(filterCondition(op, td, s, operands));
+        Integer[] order = new Integer[operands.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Comparator<Integer> bySel = Comparator.comparingDouble(sels::get);
+        Arrays.sort(order, lf.or ? bySel.reversed() : bySel);
+
+        List<CompoundPredicate> ordered = new ArrayList<>();
+        double sel = 1.0;
+        for (int i : order) {
+            ordered.add(operands.get(i));
+            // an OR fails only when all its operands fail
+            sel *= lf.or ? 1 - sels.get(i) : sels.get(i);
+        }
+        out.add(lf.or ? CompoundPredicate.or(ordered) : CompoundPredicate.and(ordered));
+        return lf.or ? 1 - sel : sel;
+    }
+
+    /**
+     * Returns the plan that filters scan by condition. The predicates ANDed at
+     * the top of condition are pushed down into a SeqScan, which tests them
+     * on the page bytes; a Filter tests the rest, if any.
+     */
+    private static OpIterator pushDown(CompoundPredicate condition, OpIterator scan) {
+        if (!(scan instanceof SeqScan))
+            return new Filter(condition, scan);
+        List<CompoundPredicate> conjuncts = condition.getKind() == CompoundPredicate.Kind.AND
+                ? condition.getOperands() : Collections.singletonList(condition);
+        List<Predicate> pushed = new ArrayList<>();
+        List<CompoundPredicate> rest = new ArrayList<>();
+        for (CompoundPredicate c : conjuncts) {
+            if (c.getKind() == CompoundPredicate.Kind.PREDICATE)
+                pushed.add(c.getPredicate());
+            else
+                rest.add(c);
+        }
+        OpIterator plan = ((SeqScan) scan).pushDown(pushed);
+        return rest.isEmpty() ? plan : new Filter(CompoundPredicate.and(rest), plan);
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -325,9 +506,15 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                // B+ tree tables are scanned through the tree, so that joins
+                // can look up keys in it (see JoinOptimizer.instantiateJoin)
+                if (f instanceof BTreeFile)
+                    ss = new BTreeScan(t, f.getId(), table.alias, null);
+                else
+                    ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -339,42 +526,40 @@ public class LogicalPlan {
 
         }
 
-        for (LogicalFilterNode lf : filters) {
-            OpIterator subplan = subplanMap.get(lf.tableAlias);
+        // all filters on a table are tested by one Filter, as their AND
+        Map<String, List<LogicalFilterNode>> tableFilters = new LinkedHashMap<>();
+        for (LogicalFilterNode lf : filters)
+            tableFilters.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(lf);
+        for (Map.Entry<String, List<LogicalFilterNode>> e : tableFilters.entrySet()) {
+            String alias = e.getKey();
+            OpIterator subplan = subplanMap.get(alias);
             if (subplan == null) {
-                throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
+                throw new ParsingException("Unknown table in WHERE clause " + alias);
             }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.indexForFieldName(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().indexForFieldName(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().indexForFieldName(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            List<CompoundPredicate> condition = new ArrayList<>();
+            double sel = filterCondition(new LogicalFilterNode(alias, false, e.getValue()),
+                    subplan.getTupleDesc(), s, condition);
+            subplanMap.put(alias, pushDown(condition.get(0), subplan));
+            filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        // filtered scans run as parallel pipelines over page ranges
+        for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+            if (parallelism == 1)
+                break;
+            boolean filtered = e.getValue() instanceof Filter || (e.getValue() instanceof SeqScan
+                    && !((SeqScan) e.getValue()).getPredicates().isEmpty());
+            if (!filtered)
+                continue;
+            OpIterator[] parts = Gather.split(e.getValue(), parallelism);
+            if (parts != null && parts.length > 1)
+                e.setValue(new Gather(parts));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
@@ -411,7 +596,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = jo.physicalJoin(lj, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -443,7 +628,11 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField != null ? 1 : 0);
+                int agg = aggIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
                 //                int  id;
                 try {
@@ -454,17 +643,18 @@ public class LogicalPlan {
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
-            } else if (hasAgg) {
-                if (groupByField == null) {
+            } else if (!aggOps.isEmpty()) {
+                int gb = groupByFields.indexOf(si.fname);
+                if (gb < 0) {
                     throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                 }
-                outFields.add(0);
+                outFields.add(gb);
                 TupleDesc td = node.getTupleDesc();
                 int id;
                 try {
-                    id = td.indexForFieldName(groupByField);
+                    id = td.indexForFieldName(si.fname);
                 } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " + groupByField + " in GROUP BY statement");
+                    throw new ParsingException("Unknown field " + si.fname + " in GROUP BY statement");
                 }
                 outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -487,27 +677,68 @@ public class LogicalPlan {
             }
         }
 
-        if (hasAgg) {
+        if (!aggOps.isEmpty()) {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.indexForFieldName(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.indexForFieldName(groupByField),
-                        getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.indexForFieldName(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.indexForFieldName(groupByFields.get(i));
+                aggNode = new Aggregate(node, afields, gfields, aops,
+                        Aggregate.DEFAULT_MEMORY_GROUPS, parallelism);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().indexForFieldName(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().indexForFieldName(oByFields.get(i));
+                asc[i] = oByAsc.get(i);
+            }
+            node = limit >= 0 ? new TopK(fields, asc, limit, node) : new OrderBy(fields, asc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Returns plan read through a {@link TupleAdapter} if every operator
+     * from its root down to its scans reads its input through nextBatch
+     * natively, so that the whole pipeline runs a batch at a time; otherwise
+     * returns plan itself. The tuples of the returned plan have no record
+     * ids, so a plan whose tuples are deleted must not be passed here.
+     * 整条流水线都支持批处理时 在根上按批拉取
+     *
+     * @param plan a physical plan, as returned by {@link #physicalPlan}
+     */
+    public static OpIterator batched(OpIterator plan) {
+        return batchCapable(plan) ? new TupleAdapter((BatchIterator) plan) : plan;
+    }
+
+    private static boolean batchCapable(OpIterator it) {
+        if (it instanceof SeqScan)
+            return true;
+        if (it instanceof Filter || it instanceof Project)
+            return batchCapable(((Operator) it).getChildren()[0]);
+        // the build side is read a tuple at a time, the probe side in batches
+        if (it instanceof HashEquiJoin)
+            return batchCapable(((Operator) it).getChildren()[1]);
+        // Aggregate reads its child in batches however it is read itself
+        return false;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -2,6 +2,7 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.storage.TupleDesc;
 
 import java.util.Map;
 
@@ -46,6 +47,10 @@ public class OperatorCardinality {
                             .estimateTableCardinality(1.0);
                 }
             }
+            if (o instanceof TopK)
+                childC = Math.min(childC, ((TopK) o).getK());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -55,20 +60,16 @@ public class OperatorCardinality {
                                                    Map<String, Integer> tableAliasToId,
                                                    Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
+        // every predicate of a filter is over the same table
+        Predicate pred = f.getCondition().predicates().get(0);
         String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
                 .split("[.]");
         String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
         double selectivity = 1.0;
         if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .indexForFieldName(pureFieldName),
-                            pred.getOp(), pred.getOperand());
+            selectivity = estimateSelectivity(f.getCondition(), child.getTupleDesc(), tableId,
+                    tableStats.get(Database.getCatalog().getTableName(tableId)));
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -87,6 +88,28 @@ public class OperatorCardinality {
         return false;
     }
 
+    /**
+     * Estimates the selectivity of an AND as the product of the selectivities
+     * of its operands, and that of an OR as one minus the product of the
+     * fractions they reject, as if the operands were independent.
+     */
+    private static double estimateSelectivity(CompoundPredicate c, TupleDesc childTd,
+                                              int tableId, TableStats stats) {
+        if (c.getKind() == CompoundPredicate.Kind.PREDICATE) {
+            Predicate pred = c.getPredicate();
+            String pureFieldName = childTd.getFieldName(pred.getField()).split("[.]")[1];
+            return stats.estimateSelectivity(
+                    Database.getCatalog().getTupleDesc(tableId).indexForFieldName(pureFieldName),
+                    pred.getOp(), pred.getOperand());
+        }
+        double product = 1.0;
+        for (CompoundPredicate o : c.getOperands()) {
+            double s = estimateSelectivity(o, childTd, tableId, stats);
+            product *= c.getKind() == CompoundPredicate.Kind.AND ? s : 1 - s;
+        }
+        return c.getKind() == CompoundPredicate.Kind.AND ? product : 1 - product;
+    }
+
     private static boolean updateJoinCardinality(Join j,
                                                  Map<String, Integer> tableAliasToId,
                                                  Map<String, TableStats> tableStats) {
@@ -221,24 +244,28 @@ public class OperatorCardinality {
                     .estimateTableCardinality(1.0);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // groups are at most the product of the distinct values of each
+        // group by field, assuming the fields are independent
+        TupleDesc td = child.getTupleDesc();
+        double groups = 1.0;
+        for (int gfield : a.groupFields()) {
+            String[] tmp = td.getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .indexForFieldName(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
         return hasJoinPK;
     }
 }
@@ -1,22 +1,29 @@
 package simpledb.optimizer;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
+    static final String GATHER = "gather";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -29,7 +36,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof GraceHashJoin
+                || o instanceof SortMergeJoin || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -65,15 +73,27 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else {
+                tableName = ((BTreeScan) queryPlan).getTableName();
+                alias = ((BTreeScan) queryPlan).getAlias();
+            }
             //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
+            if (queryPlan instanceof SeqScan && !((SeqScan) queryPlan).getPredicates().isEmpty()) {
+                // predicates pushed down into the scan
+                List<CompoundPredicate> pushed = new ArrayList<>();
+                for (Predicate p : ((SeqScan) queryPlan).getPredicates())
+                    pushed.add(CompoundPredicate.of(p));
+                alias += "," + describe(CompoundPredicate.and(pushed), queryPlan.getTupleDesc());
+            }
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
@@ -136,18 +156,32 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
+            } else if (plan instanceof HashEquiJoin || plan instanceof GraceHashJoin
+                    || plan instanceof SortMergeJoin || plan instanceof IndexNestedLoopJoin) {
+                Operator j = plan;
+                JoinPredicate jp;
+                if (plan instanceof HashEquiJoin)
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                else if (plan instanceof GraceHashJoin)
+                    jp = ((GraceHashJoin) plan).getJoinPredicate();
+                else if (plan instanceof SortMergeJoin)
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                else
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                String joinName = HASH_JOIN;
+                if (plan instanceof SortMergeJoin)
+                    joinName = MERGE_JOIN;
+                else if (plan instanceof IndexNestedLoopJoin)
+                    joinName = INDEX_JOIN;
                 TupleDesc td = j.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinName, field1
                         + jp.getOperator() + field2, j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (joinName.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinName.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -156,7 +190,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinName.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -169,16 +203,29 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc childTd = children[0].getTupleDesc();
+                StringBuilder aggs = new StringBuilder();
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
+                for (int i = 0; i < afields.length; i++) {
+                    if (aggs.length() > 0)
+                        aggs.append(", ");
+                    aggs.append(aops[i]).append("(").append(childTd.getFieldName(afields[i])).append(")");
+                }
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(), a.getEstimatedCardinality());
+                if (a.groupField() == Aggregator.NO_GROUPING) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(), a.getEstimatedCardinality());
+                    StringBuilder fields = new StringBuilder();
+                    for (int f : a.groupFields()) {
+                        if (fields.length() > 0)
+                            fields.append(",");
+                        fields.append(childTd.getFieldName(f));
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, fields, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -197,11 +244,9 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(), f.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        describe(f.getCondition(), children[0].getTupleDesc()),
+                        f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -216,13 +261,22 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
+            } else if (plan instanceof OrderBy || plan instanceof TopK) {
+                Operator o = (Operator) plan;
+                int[] oFields = plan instanceof OrderBy ? ((OrderBy) plan).getOrderByFields()
+                        : ((TopK) plan).getOrderByFields();
+                StringBuilder fields = new StringBuilder();
+                for (int f : oFields) {
+                    if (fields.length() > 0)
+                        fields.append(",");
+                    fields.append(children[0].getTupleDesc().getFieldName(f));
+                }
+                if (plan instanceof TopK)
+                    fields.append(")," + LIMIT + "(").append(((TopK) plan).getK());
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()), o.getEstimatedCardinality());
+                        fields, o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -237,6 +291,41 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d),card:%3$d", LIMIT, l.getLimit(), l.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Gather) {
+                // the pipelines only differ in their page ranges; show the first
+                thisNode.text = String.format("%1$s(%2$d),card:%3$d", GATHER, children.length,
+                        plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (GATHER.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = GATHER.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - GATHER.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -330,6 +419,25 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /**
+     * @return the condition as field op operand comparisons joined by AND
+     *         and OR, with nested groups in parentheses
+     */
+    private static String describe(CompoundPredicate c, TupleDesc td) {
+        if (c.getKind() == CompoundPredicate.Kind.PREDICATE) {
+            Predicate p = c.getPredicate();
+            return td.getFieldName(p.getField()) + p.getOp() + p.getOperand();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (CompoundPredicate o : c.getOperands()) {
+            if (sb.length() > 0)
+                sb.append(' ').append(c.getKind()).append(' ');
+            String d = describe(o, td);
+            sb.append(o.getKind() == CompoundPredicate.Kind.PREDICATE ? d : "(" + d + ")");
+        }
+        return sb.toString();
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
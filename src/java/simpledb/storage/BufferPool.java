@@ -7,10 +7,15 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -38,25 +43,116 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    private static final int PREFETCH_THREADS = 2;
+
+    // reads pages ahead of sequential scans; shared by all pools, and its
+    // daemon threads exit when idle
+    private static final ThreadPoolExecutor prefetcher = new ThreadPoolExecutor(
+            PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "BufferPool-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+
+    static {
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * A slot of the page table holding one resident page. A frame is
+     * published in the page table before its page has been read, and its
+     * latch opens once the read finishes, so concurrent misses on the same
+     * PageId wait for a single disk read instead of issuing their own.
+     */
+    private static class Frame {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        volatile Page page;
+        private volatile Exception failure;
+        // set once the loader has made room for the frame and started reading
+        volatile boolean reading;
+
+        Frame() {
+        }
+
+        Frame(Page page) {
+            loaded(page);
+        }
+
+        void loaded(Page page) {
+            this.page = page;
+            loaded.countDown();
+        }
+
+        void failed(Exception e) {
+            this.failure = e;
+            loaded.countDown();
+        }
+
+        /**
+         * Blocks until the page has been read (or the read failed).
+         */
+        Page awaitPage() throws DbException {
+            awaitLoaded();
+            if (failure instanceof DbException)
+                throw (DbException) failure;
+            if (failure != null)
+                throw (RuntimeException) failure;
+            return page;
+        }
+
+        void awaitLoaded() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
     private int numPages;
-    private ArrayList<Page> pages;
+    // page table: resident pages by id, so a hit costs O(1) regardless of numPages.
+    // ConcurrentHashMap locks per bin, so hits and misses on different pages
+    // never contend on a pool-wide mutex.
+    private final Map<PageId, Frame> pages;
+    private final EvictionPolicy evictionPolicy;
+    // serializes victim selection only; never held across a disk read
+    private final Object evictionLock = new Object();
+    // prefetched frames still being read; they cannot be evicted, so at most
+    // a quarter of the pool is given to them
+    private final AtomicInteger prefetching = new AtomicInteger();
 
     private LockManager lockManager;
 
-    //    private ReentrantReadWriteLock listLock = new ReentrantReadWriteLock();
-//    private ArrayList<ReentrantReadWriteLock> pageLocks;
-    private Lock pagesLock = new ReentrantLock();
-
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * least-recently-used pages first.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // TODO: some code goes here
+        this(numPages, new LRUEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to pick pages to evict.
+     *
+     * @param numPages       maximum number of pages in this buffer pool.
+     * @param evictionPolicy the replacement policy, e.g. {@link LRUEvictionPolicy},
+     *                       {@link ClockEvictionPolicy}, {@link LRUKEvictionPolicy}
+     *                       or {@link TwoQEvictionPolicy}
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
         this.numPages = numPages;
-        pages = new ArrayList<>();
+        this.pages = new ConcurrentHashMap<>();
+        this.evictionPolicy = evictionPolicy;
         lockManager = new LockManager();
     }
 
@@ -91,48 +187,138 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // TODO: some code goes here
-        pagesLock.lock();
-//        if(perm == Permissions.READ_WRITE)
-//            lockManager.acquireLock(tid, pid, LockManager.LockType.Write);
-//        if(perm == Permissions.READ_ONLY)
-//            lockManager.acquireLock(tid, pid, LockManager.LockType.Read);
-
         LockManager.LockType lockType = LockManager.LockType.Read;
         if(perm == Permissions.READ_WRITE)
             lockType = LockManager.LockType.Write;
+        // blocks until granted; throws if tid is chosen as a deadlock victim
         lockManager.acquireLock(tid, pid, lockType);
-        boolean successLocked = lockManager.tryLock(tid, pid, lockType);
-        int sleep_times = 0;
-        while(!successLocked) {
-            // 超时死锁
-            if(sleep_times >= 5) {
-//                throw new TransactionAbortedException();
-                transactionComplete(tid, false);
-            }
-            try {
-                sleep_times += 1;
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+
+        return fetchPage(pid);
+    }
+
+    /**
+     * Looks pid up in the page table, reading it from disk on a miss. Only
+     * the thread that installs the frame reads the page; other threads that
+     * miss on the same page wait on that frame.
+     */
+    private Page fetchPage(PageId pid) throws DbException {
+        Frame frame = pages.get(pid);
+        if(frame == null) {
+            Frame loading = new Frame();
+            frame = pages.putIfAbsent(pid, loading);
+            if(frame == null) {
+                loadPage(pid, loading);
+                return loading.page;
             }
-            successLocked = lockManager.tryLock(tid, pid, lockType);
         }
+        Page page = frame.awaitPage();
+        recordAccess(pid, frame);
+        return page;
+    }
 
-        for(Page p: pages) {
-            if(p.getId().equals(pid)) {
-                return p;
+    /**
+     * Reports an access to the eviction policy, unless the frame was evicted
+     * in the meantime; the policy would then track a page that is gone.
+     */
+    private void recordAccess(PageId pid, Frame frame) {
+        synchronized (evictionLock) {
+            if(pages.get(pid) == frame) {
+                evictionPolicy.recordAccess(pid);
             }
         }
-        if(pages.size() == numPages) {
-//            throw new DbException("驱逐策略\n");
-            evictPage();
+    }
+
+    /**
+     * Starts reading pid into the buffer pool in the background, if it is not
+     * cached yet. No lock is acquired: the page is only made resident, and a
+     * transaction still locks it when it calls getPage, which then waits for
+     * the read in progress instead of issuing its own.
+     * <p>
+     * This is a hint; it does nothing while too many prefetches are in flight,
+     * and a failed read is dropped (getPage reads the page again and reports
+     * the error).
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) {
+        if(pages.containsKey(pid))
+            return;
+        if(prefetching.incrementAndGet() > numPages / 4) {
+            prefetching.decrementAndGet();
+            return;
         }
+        Frame loading = new Frame();
+        if(pages.putIfAbsent(pid, loading) != null) {
+            prefetching.decrementAndGet();
+            return;
+        }
+        prefetcher.execute(() -> {
+            try {
+                loadPage(pid, loading);
+            } catch (DbException | RuntimeException e) {
+                // dropped, see above
+            } finally {
+                prefetching.decrementAndGet();
+            }
+        });
+    }
+
+    private void loadPage(PageId pid, Frame frame) throws DbException {
+        try {
+            Frame other;
+            while((other = makeRoom(frame)) != null) {
+                // wait outside evictionLock: the read does not need it
+                other.awaitLoaded();
+            }
+            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            // tracked before the latch opens, so that a loader waiting for
+            // this frame in makeRoom can evict it; it is not evictable until
+            // its page is set
+            recordAccess(pid, frame);
+            frame.loaded(page);
+        } catch (DbException | RuntimeException e) {
+            pages.remove(pid, frame);
+            frame.failed(e);
+            throw e;
+        }
+    }
 
-        Page res = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pages.add(res);
-        pagesLock.unlock();
-        return res;
+    /**
+     * Evicts pages until the new frame fits in the pool; the frame already
+     * counts towards numPages. Frames whose loaders are still queued here do
+     * not count, as each of them makes room for itself in turn.
+     *
+     * @return a frame being read from disk that must be waited for before
+     *         retrying, as no resident page can be evicted; or null once the
+     *         frame has room
+     * @throws DbException if every resident page is dirty
+     */
+    private Frame makeRoom(Frame frame) throws DbException {
+        synchronized (evictionLock) {
+            while(pages.size() > numPages) {
+                if(!tryEvictPage())
+                    break;
+            }
+            if(pages.size() > numPages) {
+                int queued = 0;
+                Frame reading = null;
+                for(Frame f: pages.values()) {
+                    if(f == frame || f.page != null || f.failure != null)
+                        continue;
+                    if(f.reading)
+                        reading = f;
+                    else
+                        queued++;
+                }
+                if(pages.size() - queued > numPages) {
+                    if(reading == null)
+                        throw new DbException("全是脏页");
+                    return reading;
+                }
+            }
+            frame.reading = true;
+            return null;
+        }
     }
 
     /**
@@ -189,17 +375,17 @@ public class BufferPool {
                 e.printStackTrace();
             }
         } else {
-            List<PageId> pageIds = lockManager.affectedPages(tid);
-            for(PageId pageId: pageIds) {
-//                Iterator<Page> iterator = pages.iterator();
-//                while(iterator.hasNext()) {
-//                    Page p = iterator.next();
-//                    p = p.getBeforeImage();
-//                }
-                for (int i = 0; i < pages.size(); i++) {
-                    if(pageId.equals(pages.get(i).getId())) {
-                        pages.set(i, pages.get(i).getBeforeImage());
-                    }
+            // only pages tid write-locked can carry its changes
+            for(Map.Entry<PageId, LockManager.LockType> e: lockManager.getLocks(tid).entrySet()) {
+                if(e.getValue() != LockManager.LockType.Write)
+                    continue;
+                Frame frame = pages.get(e.getKey());
+                if(frame != null && frame.page != null && tid.equals(frame.page.isDirty())) {
+                    frame.page = frame.page.getBeforeImage();
+                    // the free-space map counted the aborted changes
+                    DbFile file = Database.getCatalog().getDatabaseFile(e.getKey().getTableId());
+                    if (file instanceof HeapFile)
+                        ((HeapFile) file).updateFreeSpace((HeapPage) frame.page);
                 }
             }
         }
@@ -226,11 +412,25 @@ public class BufferPool {
         // TODO: some code goes here
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> affectPgs = (ArrayList<Page>) dbFile.insertTuple(tid, t);
-        for(Page page: affectPgs) {
-            page.markDirty(true, tid);
-            pages.add(page);
-        }
+        List<Page> affectPgs = dbFile.insertTuple(tid, t);
+        cacheDirtyPages(tid, affectPgs);
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid. The DbFile is looked up once and fills its pages in order, and the
+     * dirtied pages are cached in one pass.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> affectPgs = dbFile.insertTuples(tid, tuples);
+        cacheDirtyPages(tid, affectPgs);
     }
 
     /**
@@ -251,19 +451,41 @@ public class BufferPool {
         // TODO: some code goes here
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        ArrayList<Page> dirty_page = (ArrayList<Page>) dbFile.deleteTuple(tid, t);
-
-        for(Page p: pages) {
-            for(Page dp: dirty_page) {
-                if(dp.getId().equals(p.getId())) {
-                    p.markDirty(true, tid);
-                    pages.remove(p);
-                    pages.add(dp);
+        List<Page> dirty_page = dbFile.deleteTuple(tid, t);
+        cacheDirtyPages(tid, dirty_page);
+    }
+
+    /**
+     * Marks the pages dirtied by tid and installs them in the page table,
+     * replacing any cached versions.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        // pages appended by the DbFile were not fetched through getPage; lock
+        // them (outside the pool monitor, as this may block) so they are part
+        // of tid's lock set at commit/abort
+        for(Page page: dirtied) {
+            if(!lockManager.holdsLock(tid, page.getId())) {
+                lockManager.acquireLock(tid, page.getId(), LockManager.LockType.Write);
+            }
+        }
+        synchronized (this) {
+            for(Page page: dirtied) {
+                page.markDirty(true, tid);
+                Frame frame = pages.get(page.getId());
+                if(frame != null) {
+                    frame.page = page;
+                } else {
+                    synchronized (evictionLock) {
+                        if(pages.size() >= numPages) {
+                            evictPage();
+                        }
+                    }
+                    pages.put(page.getId(), new Frame(page));
                 }
+                evictionPolicy.recordAccess(page.getId());
             }
         }
-
-
     }
 
     /**
@@ -274,8 +496,8 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        for(Page p: pages) {
-            flushPage(p.getId());
+        for(PageId pid: pages.keySet()) {
+            flushPage(pid);
         }
     }
 
@@ -291,28 +513,24 @@ public class BufferPool {
     public synchronized void removePage(PageId pid) {
         // TODO: some code goes here
         // not necessary for lab1
-        for(Page page: pages) {
-            if(page.getId().equals(pid)) {
-                pages.remove(page);
-                break;
-            }
+        if(pages.remove(pid) != null) {
+            evictionPolicy.remove(pid);
         }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. A clean page already matches the disk,
+     * and is not written; read-only files such as MappedHeapFile reject writes.
      *
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        for(Page page: pages) {
-            if(page.getId().equals(pid)) {
-                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-                page.markDirty(false, null);
-                break;
-            }
+        Frame frame = pages.get(pid);
+        if(frame != null && frame.page != null && frame.page.isDirty() != null) {
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(frame.page);
+            frame.page.markDirty(false, null);
         }
     }
 
@@ -322,31 +540,41 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1|lab2
-        List<PageId> pageIds = lockManager.affectedPages(tid);
-        for(PageId pageId: pageIds) {
-            flushPage(pageId);
+        // only pages tid write-locked can be dirty
+        for(Map.Entry<PageId, LockManager.LockType> e: lockManager.getLocks(tid).entrySet()) {
+            if(e.getValue() != LockManager.LockType.Write)
+                continue;
+            Frame frame = pages.get(e.getKey());
+            if(frame != null && frame.page != null && frame.page.isDirty() != null) {
+                flushPage(e.getKey());
+            }
         }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, as chosen by the eviction policy.
+     * Dirty pages are never evicted (NO STEAL), so clean victims need no flush.
+     * Frames still being read are skipped. Callers hold evictionLock.
      */
-    private synchronized void evictPage() throws DbException {
-        // TODO: some code goes here
-        // not necessary for lab1
-        for(Page p: pages) {
-            if(p.isDirty() == null) {
-                try {
-                    flushPage(p.getId());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                pages.remove(p);
-                return ;
-            }
+    private void evictPage() throws DbException {
+        if(!tryEvictPage()) {
+            throw new DbException("全是脏页");
+        }
+    }
+
+    /**
+     * @return false if no resident page can be evicted
+     */
+    private boolean tryEvictPage() {
+        PageId victim = evictionPolicy.evict(pid -> {
+            Frame frame = pages.get(pid);
+            return frame != null && frame.page != null && frame.page.isDirty() == null;
+        });
+        if(victim == null) {
+            return false;
         }
-        throw new DbException("全是脏页");
+        pages.remove(victim);
+        return true;
     }
 
 }
\ No newline at end of file
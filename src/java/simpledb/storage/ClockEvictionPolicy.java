@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) eviction. Resident pages sit in a circular buffer with
+ * a reference bit each; a hit only sets the bit, and the clock hand clears
+ * bits as it sweeps until it finds an unreferenced evictable page.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final ArrayList<PageId> slots = new ArrayList<>();
+    private final ArrayList<Boolean> referenced = new ArrayList<>();
+    private final Map<PageId, Integer> slotOf = new HashMap<>();
+    // slots freed by evict/remove, reused before the ring grows
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int hand = 0;
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+            return;
+        }
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(pid);
+            referenced.add(true);
+        } else {
+            slot = freeSlots.pop();
+            slots.set(slot, pid);
+            referenced.set(slot, true);
+        }
+        slotOf.put(pid, slot);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            slots.set(slot, null);
+            freeSlots.push(slot);
+        }
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        int n = slots.size();
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            PageId pid = slots.get(slot);
+            if (pid == null || !evictable.test(pid))
+                continue;
+            if (referenced.get(slot)) {
+                referenced.set(slot, false);
+                continue;
+            }
+            remove(pid);
+            return pid;
+        }
+        return null;
+    }
+}
@@ -1,11 +1,14 @@
 package simpledb.storage;
 
 import simpledb.common.Catalog;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -46,6 +49,31 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all the given tuples to the file on behalf of transaction.
+     * Implementations should fill pages in order and lock each page once.
+     * Pages are marked dirty as soon as they have been filled, so that the
+     * buffer pool does not evict them while the remaining tuples are inserted.
+     * <p>
+     * The default implementation inserts the tuples one at a time through
+     * {@link BufferPool#insertTuple}, which caches the pages each insert
+     * dirtied before the next one runs.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to reflect
+     *               that it is now stored in this file.
+     * @return the modified pages that the buffer pool has not cached yet
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        while (tuples.hasNext()) {
+            Database.getBufferPool().insertTuple(tid, getId(), tuples.next());
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
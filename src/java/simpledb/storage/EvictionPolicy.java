@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should discard
+ * when it needs room for a new one. The BufferPool reports every page hit or
+ * load through {@link #recordAccess} and every page that leaves the pool
+ * through {@link #remove}, and asks for a victim with {@link #evict}.
+ * <p>
+ * Implementations must be safe to call from multiple threads.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Records that the specified page was read from disk into the pool or
+     * was found in the pool.
+     *
+     * @param pid the id of the accessed page
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Forgets the specified page; called when the BufferPool drops a page
+     * for a reason other than {@link #evict} (e.g. removePage).
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict and stops tracking it.
+     *
+     * @param evictable tells whether a candidate page may be evicted right
+     *                  now (e.g. it is not dirty)
+     * @return the id of the page to evict, or null if no tracked page is
+     *         evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+}
@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records the number of free slots on each page of a HeapFile,
+ * so that inserts go straight to a page with room instead of visiting every
+ * page of the table.
+ * <p>
+ * The counts are hints: another transaction may fill a page after it was
+ * recorded as free, so callers check the page itself and record the actual
+ * count when it differs. Finding a page costs amortized constant time, since
+ * pages before {@code firstFree} are known to be full and are never searched
+ * again until one of them frees up.
+ */
+class FreeSpaceMap {
+
+    private int[] free = new int[16];
+    private int size = 0;
+    // no page before this one has free slots
+    private int firstFree = 0;
+
+    /**
+     * @return the number of pages the map has counts for
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records that page pgNo has n free slots, extending the map if pgNo is
+     * past its end (pages in between are recorded as full).
+     */
+    synchronized void set(int pgNo, int n) {
+        if (pgNo >= free.length)
+            free = Arrays.copyOf(free, Math.max(free.length * 2, pgNo + 1));
+        if (pgNo >= size)
+            size = pgNo + 1;
+        free[pgNo] = n;
+        if (n > 0 && pgNo < firstFree)
+            firstFree = pgNo;
+    }
+
+    /**
+     * @return the first page at or after from that has free slots, or -1 if
+     *         there is none
+     */
+    synchronized int next(int from) {
+        int pgNo = Math.max(from, firstFree);
+        while (pgNo < size && free[pgNo] == 0)
+            pgNo++;
+        if (from <= firstFree)
+            firstFree = pgNo;
+        return pgNo < size ? pgNo : -1;
+    }
+}
@@ -3,11 +3,15 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -24,8 +28,24 @@ import java.util.NoSuchElementException;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * Number of pages a scan reads ahead once it has read two pages in a row.
+     */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    // a table that runs out of space grows by an eighth, up to this many pages
+    private static final int MAX_APPEND_PAGES = 64;
+
     private File f;
     private TupleDesc td;
+    // opened on first use and kept for the lifetime of this HeapFile
+    private volatile FileChannel channel;
+
+    // free slots per page; built from the page headers on disk by the first insert
+    private FreeSpaceMap freeSpace;
+
+    // per-thread direct buffer of one page, reused by every read and write
+    private static final ThreadLocal<ByteBuffer> pageBuffer = new ThreadLocal<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -73,20 +93,68 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel of the backing file, opening it on first use.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = new RandomAccessFile(f, "rw").getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    private static ByteBuffer pageBuffer() {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = pageBuffer.get();
+        // the page size only changes in tests
+        if (buf == null || buf.capacity() != pageSize) {
+            buf = ByteBuffer.allocateDirect(pageSize);
+            pageBuffer.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Closes the channel of the backing file. It is reopened if the file is
+     * used again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // TODO: some code goes here
         int tableid = pid.getTableId();
         int pgNo = pid.getPageNumber();
-        final int pageSize = BufferPool.getPageSize();
+        final long offset = (long) pgNo * BufferPool.getPageSize();
         byte[] rawPgData = HeapPage.createEmptyPageData();
 
-        // random access read from disk
+        // positional read from disk; past the end of the file the page stays empty
         try {
-            FileInputStream in = new FileInputStream(f);
-            in.skip(pgNo * pageSize);
-            in.read(rawPgData);
-            return new HeapPage(new HeapPageId(tableid, pgNo), rawPgData);
+            FileChannel ch = channel();
+            ByteBuffer buf = pageBuffer();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+            buf.get(rawPgData, 0, buf.remaining());
+            HeapPage page = new HeapPage(new HeapPageId(tableid, pgNo), rawPgData);
+            // the page on disk has no uncommitted changes
+            updateFreeSpace(page);
+            return page;
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("HeapFile: readPage: file not found");
         } catch (IOException e) {
@@ -99,15 +167,89 @@ public class HeapFile implements DbFile {
         // TODO: some code goes here
         // not necessary for lab1
         PageId pid = page.getId();
-        int tableid = pid.getTableId();
         int pgNo = pid.getPageNumber();
+        final long offset = (long) pgNo * BufferPool.getPageSize();
+
+        FileChannel ch = channel();
+        ByteBuffer buf = pageBuffer();
+        buf.put(page.getPageData());
+        buf.flip();
+        boolean grows = offset + buf.remaining() > ch.size();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+        // synchronous like the "rws" mode used before; the length only
+        // needs syncing when the file grew
+        ch.force(grows);
+
+        if (page instanceof HeapPage)
+            updateFreeSpace((HeapPage) page);
+    }
+
+    /**
+     * Records the free slots of page in the free-space map. The buffer pool
+     * calls it when an abort restores the before image of a page, since the
+     * map still counts the slots taken by the aborted inserts.
+     */
+    void updateFreeSpace(HeapPage page) {
+        int pgNo = page.getId().getPageNumber();
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null && pgNo < fsm.size())
+            fsm.set(pgNo, page.getNumUnusedSlots());
+    }
+
+    /**
+     * Returns the free-space map, first counting the free slots of pages it
+     * does not cover yet (all of them on the first call, or pages appended
+     * to the file by other means) from their headers on disk.
+     */
+    private synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (freeSpace == null)
+            freeSpace = new FreeSpaceMap();
+        int numPages = numPages();
+        if (freeSpace.size() < numPages) {
+            int numSlots = HeapPage.numSlots(td);
+            FileChannel ch = channel();
+            ByteBuffer buf = pageBuffer();
+            byte[] header = new byte[HeapPage.headerSize(td)];
+            for (int pgNo = freeSpace.size(); pgNo < numPages; pgNo++) {
+                // only the header of each page is read
+                buf.clear().limit(header.length);
+                long offset = (long) pgNo * BufferPool.getPageSize();
+                while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0)
+                    ;
+                buf.flip();
+                buf.get(header);
+                freeSpace.set(pgNo, HeapPage.countFreeSlots(header, numSlots));
+            }
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Returns a page that has free slots, appending a batch of empty pages to
+     * the file if there is none.
+     */
+    private synchronized int allocatePage() throws IOException {
+        // another insert may have made room since the caller looked
+        FreeSpaceMap fsm = freeSpaceMap();
+        int pgNo = fsm.next(0);
+        if (pgNo >= 0)
+            return pgNo;
 
-        final int pageSize = BufferPool.getPageSize();
-        byte[] pgData = page.getPageData();
+        int first = numPages();
+        int count = Math.max(1, Math.min(MAX_APPEND_PAGES, first / 8));
+        FileChannel ch = channel();
+        ByteBuffer zeroes = ByteBuffer.allocate(count * BufferPool.getPageSize());
+        long offset = (long) first * BufferPool.getPageSize();
+        while (zeroes.hasRemaining())
+            ch.write(zeroes, offset + zeroes.position());
+        ch.force(true);
 
-        RandomAccessFile dbfile = new RandomAccessFile(f, "rws");
-        dbfile.skipBytes(pgNo * pageSize);
-        dbfile.write(pgData);
+        int numSlots = HeapPage.numSlots(td);
+        for (int i = 0; i < count; i++)
+            fsm.set(first + i, numSlots);
+        return first;
     }
 
     /**
@@ -124,31 +266,49 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         // not necessary for lab1
+        return insertTuples(tid, Collections.singletonList(t).iterator());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> res = new ArrayList<>();
-        int numPages = numPages();
+        if (!tuples.hasNext()) {
+            return res;
+        }
+        FreeSpaceMap fsm = freeSpaceMap();
 
-        for(int pgNo = 0; pgNo < numPages + 1; pgNo ++) {
-            HeapPageId pid = new HeapPageId(getId(), pgNo);
-            HeapPage pg;
-            if(pgNo < numPages) {
-                // 先从缓冲区取
-                pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            } else {
-                pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = tuples.next();
+        int from = 0;
+        while (true) {
+            // jump to a page the free-space map says has room
+            int pgNo = fsm.next(from);
+            if(pgNo < 0) {
+                pgNo = allocatePage();
             }
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            // 先从缓冲区取
+            HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
 
-            if(pg.getNumUnusedSlots() > 0) {
-                pg.insertTuple(t);
-                if(pgNo < numPages) {
-                    res.add(pg);
-                } else {
-                    writePage(pg);
-                    res.add(pg);
+            // the map is only a hint; the page has the actual count
+            int unused = pg.getNumUnusedSlots();
+            if(unused > 0) {
+                while (unused > 0 && t != null) {
+                    pg.insertTuple(t);
+                    unused--;
+                    t = tuples.hasNext() ? tuples.next() : null;
                 }
-                return  res;
+                // keep the page in the buffer pool while the next one is filled
+                pg.markDirty(true, tid);
+                res.add(pg);
             }
+            fsm.set(pgNo, unused);
+            if (t == null) {
+                return res;
+            }
+            from = pgNo + 1;
         }
-        throw new DbException("无法加入");
     }
 
     // see DbFile.java for javadocs
@@ -161,49 +321,99 @@ public class HeapFile implements DbFile {
             List<Page> res = new ArrayList<>();
             HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
             heapPage.deleteTuple(t);
+            FreeSpaceMap fsm = freeSpace;
+            if (fsm != null && heapPageId.getPageNumber() < fsm.size())
+                fsm.set(heapPageId.getPageNumber(), heapPage.getNumUnusedSlots());
             res.add(heapPage);
             return res;
         }
         throw new DbException("tuple 所在的表不在这个文件内");
     }
 
-    private class HeapFileIterator implements DbFileIterator {
+    /**
+     * Iterates over the tuples of a range of pages of this file, or fills
+     * batches with their values through {@link #fill}.
+     */
+    public class HeapFileIterator implements DbFileIterator {
 
         private Integer pgCursor;
+        // the page at pgCursor, its tuples if read through next, and the
+        // next slot to read if read through fill
+        private HeapPage page;
         private Iterator<Tuple> tupleIter;
+        private int slot;
         private final TransactionId transactionId;
         private final int tableId;
-        private final int numPages;
+        // the pages scanned are [firstPage, endPage)
+        private final int firstPage;
+        private final int endPage;
+        private final int readAhead;
+        // tested on the bytes of each page
+        private final List<Predicate> predicates;
+        // the last page fetched, and the end of the pages handed to the prefetcher
+        private int lastPgNo;
+        private int prefetchedTo;
 
-        public HeapFileIterator(TransactionId tid) {
+        HeapFileIterator(TransactionId tid, int firstPage, int endPage, int readAhead,
+                         List<Predicate> predicates) {
             this.pgCursor = null;
             this.tupleIter = null;
             this.transactionId = tid;
             this.tableId = getId();
-            this.numPages = numPages();
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.readAhead = readAhead;
+            this.predicates = predicates;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            pgCursor = 0;
-            tupleIter = getTupleIter(pgCursor);
+            if (firstPage >= endPage) {
+                pgCursor = null;
+                return;
+            }
+            pgCursor = firstPage;
+            lastPgNo = -1;
+            prefetchedTo = 0;
+            loadPage(pgCursor);
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            // < numpage - 1
-            if (pgCursor != null) {
-                while (pgCursor < numPages - 1) {
-                    if (tupleIter.hasNext()) {
-                        return true;
-                    } else {
-                        pgCursor += 1;
-                        tupleIter = getTupleIter(pgCursor);
-                    }
-                }
-                return tupleIter.hasNext();
-            } else {
+            if (pgCursor == null)
                 return false;
+            while (true) {
+                if (tupleIter == null)
+                    tupleIter = page.iterator(predicates);
+                if (tupleIter.hasNext())
+                    return true;
+                // < endPage - 1
+                if (pgCursor >= endPage - 1)
+                    return false;
+                pgCursor += 1;
+                loadPage(pgCursor);
+            }
+        }
+
+        /**
+         * Clears batch and fills it with the values of the next tuples,
+         * copied from the page bytes. The tuples of an iterator are read
+         * either through next or through fill between open and close.
+         *
+         * @param batch a batch with the types of the tuples of this file
+         * @return the number of rows added, 0 if there are no more tuples
+         * @see HeapPage#fill
+         */
+        public int fill(TupleBatch batch) throws DbException, TransactionAbortedException {
+            batch.clear();
+            if (pgCursor == null)
+                return 0;
+            while (true) {
+                slot = page.fill(batch, slot, predicates);
+                if (batch.isFull() || pgCursor >= endPage - 1)
+                    return batch.rows();
+                pgCursor += 1;
+                loadPage(pgCursor);
             }
         }
 
@@ -224,24 +434,94 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             pgCursor = null;
+            page = null;
             tupleIter = null;
         }
 
-        private Iterator<Tuple> getTupleIter(int pgNo)
+        private void loadPage(int pgNo)
                 throws TransactionAbortedException, DbException {
+            readAhead(pgNo);
             PageId pid = new HeapPageId(tableId, pgNo);
-            return ((HeapPage)
-                    Database
-                            .getBufferPool()
-                            .getPage(transactionId, pid, Permissions.READ_ONLY))
-                    .iterator();
+            page = (HeapPage) Database
+                    .getBufferPool()
+                    .getPage(transactionId, pid, Permissions.READ_ONLY);
+            tupleIter = null;
+            slot = 0;
+        }
+
+        /**
+         * Once the scan is sequential, keeps up to readAhead pages after pgNo
+         * loading in the background, topping the window up whenever half of
+         * it has been consumed.
+         */
+        private void readAhead(int pgNo) {
+            boolean sequential = pgNo > firstPage && pgNo == lastPgNo + 1;
+            lastPgNo = pgNo;
+            if (readAhead <= 0 || !sequential || prefetchedTo - pgNo > readAhead / 2)
+                return;
+            int end = Math.min(endPage, pgNo + 1 + readAhead);
+            for (int p = Math.max(prefetchedTo, pgNo + 1); p < end; p++) {
+                Database.getBufferPool().prefetchPage(new HeapPageId(tableId, p));
+            }
+            prefetchedTo = end;
         }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return iterator(tid, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Returns an iterator over all the tuples of this file that reads up to
+     * readAhead pages ahead of the page being scanned.
+     *
+     * @param readAhead the number of pages to prefetch, or 0 to disable read-ahead
+     * @see BufferPool#prefetchPage
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead) {
+        return iterator(tid, 0, numPages(), readAhead);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages firstPage (inclusive) to
+     * endPage (exclusive) of this file. Iterators over disjoint page ranges
+     * may be used by different threads at the same time, so a scan can be
+     * split into parallel scans.
+     *
+     * @see simpledb.execution.SeqScan#split
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return iterator(tid, firstPage, endPage, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages firstPage (inclusive) to
+     * endPage (exclusive) of this file that reads up to readAhead pages ahead
+     * of the page being scanned.
+     *
+     * @param readAhead the number of pages to prefetch, or 0 to disable read-ahead
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, int readAhead) {
+        return iterator(tid, firstPage, endPage, readAhead, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages firstPage (inclusive) to
+     * endPage (exclusive) of this file that pass every predicate. The
+     * predicates are tested on the page bytes before tuples are created, and
+     * pages whose values rule them out are skipped.
+     *
+     * @param readAhead  the number of pages to prefetch, or 0 to disable read-ahead
+     * @param predicates predicates over the fields of the tuples of this file
+     * @see HeapPage#iterator(List)
+     */
+    public HeapFileIterator iterator(TransactionId tid, int firstPage, int endPage, int readAhead,
+                                     List<Predicate> predicates) {
+        if (firstPage < 0 || endPage < firstPage)
+            throw new IllegalArgumentException("invalid page range [" + firstPage + ", " + endPage + ")");
+        return new HeapFileIterator(tid, firstPage, endPage, readAhead, predicates);
     }
 
 }
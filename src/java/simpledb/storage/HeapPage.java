@@ -3,10 +3,15 @@ package simpledb.storage;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -21,14 +26,28 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // tuples decoded so far, or inserted; null for slots not yet accessed
     final Tuple[] tuples;
     final int numSlots;
+    // the page as read from disk; slots are decoded from it on first access
+    private final ByteBuffer data;
+    // offset of each field within a tuple
+    private final int[] fieldOffsets;
     private TransactionId last_dir_tid = null;
     private boolean is_dirty = false;
 
     byte[] oldData;
+    // before image while it is still the data the page was created from,
+    // until setBeforeImage is called
+    private ByteBuffer oldSource;
     private final Byte oldDataLock = (byte) 0;
 
+    // minimum and maximum of each int column over the used slots, {min, max},
+    // computed the first time a scan with predicates asks for them; reset
+    // when a tuple is inserted or deleted. Updates delete and insert tuples,
+    // so fields set in place on a tuple of the page are not tracked
+    private int[][] ranges;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -47,27 +66,37 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the page, such as a slice of a
+     * memory-mapped file. Only the header is read here: the page keeps the
+     * buffer and decodes each tuple, and each field of a tuple, the first time
+     * it is accessed. The buffer (or the array passed to
+     * {@link #HeapPage(HeapPageId, byte[])}) must not change afterwards; it
+     * also serves as the before image of the page.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.asReadOnlyBuffer();
 
-        // allocate and read the header slots of this page
+        if (this.data.capacity() < getHeaderSize() + numSlots * td.getSize())
+            throw new IOException("HeapPage: page data is too short");
+        // read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.data.duplicate().position(0).get(header);
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
+        oldSource = this.data;
     }
 
     /**
@@ -77,7 +106,33 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // TODO: some code goes here
-        return Math.floorDiv (BufferPool.getPageSize() * 8 , this.td.getSize() * 8 + 1) ;
+        return numSlots(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with schema td
+     */
+    static int numSlots(TupleDesc td) {
+        return Math.floorDiv (BufferPool.getPageSize() * 8 , td.getSize() * 8 + 1) ;
+    }
+
+    /**
+     * @return the number of header bytes on a page of a table with schema td
+     */
+    static int headerSize(TupleDesc td) {
+        return (int)Math.ceil((double)numSlots(td) / 8);
+    }
+
+    /**
+     * Counts the unused slots among the first numSlots bits of a page header.
+     * The bits past numSlots in the last header byte are padding.
+     */
+    static int countFreeSlots(byte[] header, int numSlots) {
+        int res = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (((header[i / 8] >> (i % 8)) & 1) == 0) res++;
+        }
+        return res;
     }
 
     /**
@@ -88,7 +143,7 @@ public class HeapPage implements Page {
     private int getHeaderSize() {
 
         // TODO: some code goes here
-        return (int)Math.ceil((double)this.getNumTuples() / 8);
+        return headerSize(td);
     }
 
     /**
@@ -98,9 +153,13 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage() {
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldSourceRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
+                oldSourceRef = oldSource;
             }
+            if (oldDataRef == null)
+                return new HeapPage(pid, oldSourceRef);
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -113,6 +172,7 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized (oldDataLock) {
             oldData = getPageData().clone();
+            oldSource = null;
         }
     }
 
@@ -124,37 +184,20 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot slotId, creating a view of it over the page
+     * data on first access.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new HeapPageTuple(td, new RecordId(pid, slotId), data, slotOffset(slotId), fieldOffsets);
+            tuples[slotId] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
@@ -200,6 +243,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot never accessed: copy it as it is on disk
+            if (tuples[i] == null) {
+                byte[] raw = new byte[td.getSize()];
+                data.duplicate().position(slotOffset(i)).get(raw);
+                try {
+                    dos.write(raw);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -258,17 +313,16 @@ public class HeapPage implements Page {
         boolean has_t = false;
         RecordId rec2del = t.getRecordId();
         if(rec2del != null && pid.equals(rec2del.getPageId())) {
-            for (int i = 0; i < tuples.length; i++) {
-                if (tuples[i] != null && rec2del.equals(tuples[i].getRecordId()) && isSlotUsed(i)) {
-                    markSlotUsed(i, false);
-//                    tuples[i] = null;
-                    has_t = true;
-                }
+            int i = rec2del.getTupleNumber();
+            if (i >= 0 && i < numSlots && isSlotUsed(i)) {
+                markSlotUsed(i, false);
+                has_t = true;
             }
         }
         if(!has_t) {
             throw new DbException("tuple不存在或者已删除");
         }
+        clearRanges();
     }
 
     /**
@@ -293,6 +347,7 @@ public class HeapPage implements Page {
                 t.setRecordId(new RecordId(pid, i));    // notice!
                 tuples[i] = t;
                 markSlotUsed(i, true);
+                clearRanges();
                 return ;
             }
         }
@@ -329,16 +384,7 @@ public class HeapPage implements Page {
      */
     public int getNumUnusedSlots() {
         // TODO: some code goes here
-        int res = 0;
-        for (int i = 0; i < header.length; i++) {
-            byte t = header[i];
-            for (int j = 0; j < 8; j++) {
-                if((t&1) == 0) res++;
-                t = (byte) (t>>1);
-            }
-        }
-
-        return res;
+        return countFreeSlots(header, numSlots);
     }
 
     /**
@@ -382,19 +428,178 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
+        // deletes leave empty slots anywhere on the page, so every slot is checked
+        return usedSlots(Collections.emptyList());
+    }
+
+
+    /**
+     * Returns the tuples in the used slots of this page that pass every
+     * predicate, skipping empty slots wherever they are. The
+     * predicates are tested on the bytes of each slot, so a tuple is only
+     * created for the slots that pass. When the minimum and maximum of an
+     * int column on this page rule out a predicate, no slot is read at all;
+     * they are kept with the page, so later scans of a page still in the
+     * buffer pool skip it for free.
+     * 在页面字节上直接测试谓词
+     *
+     * @param predicates predicates over the fields of the tuples of this page
+     */
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        if (predicates.isEmpty())
+            return iterator();
+        for (Predicate p : predicates) {
+            if (!mayMatch(p))
+                return Collections.emptyIterator();
+        }
+        return usedSlots(predicates);
+    }
+
+    /**
+     * @return the tuples in the used slots of this page that pass every
+     *         predicate, in slot order
+     */
+    private Iterator<Tuple> usedSlots(List<Predicate> predicates) {
         return new Iterator<Tuple>() {
-            int cur = -1;
+            int cur = advance(0);
+
+            // the first used slot from slot on that passes
+            private int advance(int slot) {
+                for (; slot < numSlots; slot++) {
+                    if (isSlotUsed(slot) && matches(slot, predicates))
+                        return slot;
+                }
+                return numSlots;
+            }
+
             @Override
             public boolean hasNext() {
-                return cur + 1 < numSlots && isSlotUsed(cur + 1);
+                return cur < numSlots;
             }
 
             @Override
             public Tuple next() {
-                cur ++;
-                return tuples[cur];
+                if (cur >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(cur);
+                cur = advance(cur + 1);
+                return t;
             }
         };
     }
 
+    /**
+     * Appends to batch the values of the used slots of this page, from slot
+     * on, that pass every predicate, until the batch is full. The values are
+     * read from the page bytes into the columns of the batch, so no tuple is
+     * created for a slot that was not accessed before. A page whose minimum
+     * and maximum rule out a predicate adds no row.
+     *
+     * @param batch      a batch with the types of this page, and no selection
+     * @param slot       the first slot to read
+     * @param predicates predicates over the fields of the tuples of this page
+     * @return the slot to read next, or the number of slots if the page is done
+     * @see #iterator(List)
+     */
+    public int fill(TupleBatch batch, int slot, List<Predicate> predicates) {
+        if (slot == 0) {
+            for (Predicate p : predicates) {
+                if (!mayMatch(p))
+                    return numSlots;
+            }
+        }
+        int n = td.numFields();
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot) || !matches(slot, predicates))
+                continue;
+            int row = batch.addRow();
+            Tuple t = tuples[slot];
+            int offset = slotOffset(slot);
+            for (int i = 0; i < n; i++) {
+                if (t != null)
+                    batch.set(i, row, t, i);
+                else if (td.getFieldType(i) == Type.INT_TYPE)
+                    batch.intColumn(i)[row] = data.getInt(offset + fieldOffsets[i]);
+                else
+                    batch.stringColumn(i)[row] = HeapPageTuple.readString(data, offset + fieldOffsets[i]);
+            }
+        }
+        return slot;
+    }
+
+    private boolean matches(int slot, List<Predicate> predicates) {
+        // a tuple accessed or inserted already may differ from the bytes
+        Tuple t = tuples[slot];
+        for (Predicate p : predicates) {
+            boolean pass;
+            if (t != null) {
+                pass = p.filter(t);
+            } else {
+                int offset = slotOffset(slot) + fieldOffsets[p.getField()];
+                if (p.getOperand() instanceof IntField)
+                    pass = Predicate.compare(data.getInt(offset), p.getOp(),
+                            ((IntField) p.getOperand()).getValue());
+                else
+                    pass = new StringField(HeapPageTuple.readString(data, offset), Type.STRING_LEN)
+                            .compare(p.getOp(), p.getOperand());
+            }
+            if (!pass)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if no tuple on this page can pass p
+     */
+    private boolean mayMatch(Predicate p) {
+        if (!(p.getOperand() instanceof IntField))
+            return true;
+        int[] range = range(p.getField());
+        int lo = range[0], hi = range[1], v = ((IntField) p.getOperand()).getValue();
+        if (lo > hi)
+            return false;   // no used slot
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return lo <= v && v <= hi;
+            case NOT_EQUALS:
+                return lo != v || hi != v;
+            case GREATER_THAN:
+                return hi > v;
+            case GREATER_THAN_OR_EQ:
+                return hi >= v;
+            case LESS_THAN:
+                return lo < v;
+            case LESS_THAN_OR_EQ:
+                return lo <= v;
+        }
+        return true;
+    }
+
+    /**
+     * @return the minimum and maximum of int field over the used slots; the
+     *         minimum is greater than the maximum if no slot is used
+     */
+    private synchronized int[] range(int field) {
+        if (ranges == null)
+            ranges = new int[td.numFields()][];
+        if (ranges[field] == null) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                int x = tuples[i] != null ? tuples[i].getInt(field)
+                        : data.getInt(slotOffset(i) + fieldOffsets[field]);
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+            ranges[field] = new int[]{min, max};
+        }
+        return ranges[field];
+    }
+
+    private synchronized void clearRanges() {
+        ranges = null;
+    }
 }
\ No newline at end of file
@@ -47,17 +47,7 @@ public class HeapPageId implements PageId {
      * @see BufferPool
      */
     public int hashCode() {
-        // TODO: some code goes here
-        String res = "";
-        res += String.valueOf(tableId);
-        res += String.valueOf(pgNo);
-
-        int hashcode = 0;
-        for (int i = 0; i < res.length(); i++) {
-            hashcode = hashcode * 131 + (int) res.charAt(i);
-        }
-
-        return hashcode;
+        return Objects.hash(tableId, pgNo);
     }
 
     /**
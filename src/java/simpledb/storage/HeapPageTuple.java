@@ -0,0 +1,97 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A tuple stored on a HeapPage, viewed over the raw bytes of the page. Each
+ * field is decoded the first time it is read, so operators that look at a
+ * few columns of a row (or discard it) do not pay for decoding the rest.
+ * A field that is set explicitly replaces the stored value, as for any Tuple.
+ *
+ * @see HeapPage
+ */
+class HeapPageTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+    private final TupleDesc td;
+    private final transient ByteBuffer data;
+    // start of this tuple in data, and of each field within the tuple
+    private final int offset;
+    private final int[] fieldOffsets;
+
+    HeapPageTuple(TupleDesc td, RecordId rid, ByteBuffer data, int offset, int[] fieldOffsets) {
+        super(td);
+        this.td = td;
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        setRecordId(rid);
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null) {
+            // a benign race: concurrent readers decode equal, immutable fields
+            f = td.getFieldType(i).parse(data, offset + fieldOffsets[i]);
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    /**
+     * Reads the value from the page, without creating a Field, if the field
+     * was not decoded yet.
+     */
+    @Override
+    public int getInt(int i) {
+        Field f = super.getField(i);
+        if (f != null)
+            return ((IntField) f).getValue();
+        return data.getInt(offset + fieldOffsets[i]);
+    }
+
+    @Override
+    public String getString(int i) {
+        Field f = super.getField(i);
+        if (f != null)
+            return ((StringField) f).getValue();
+        return readString(data, offset + fieldOffsets[i]);
+    }
+
+    /**
+     * @return the STRING_TYPE value stored at offset start of data
+     */
+    static String readString(ByteBuffer data, int start) {
+        byte[] bs = new byte[data.getInt(start)];
+        data.duplicate().position(start + 4).get(bs);
+        return new String(bs);
+    }
+
+    /**
+     * @return true if field i is only stored on the page, at
+     *         {@link #fieldOffset} in {@link #data}
+     */
+    boolean raw(int i) {
+        return super.getField(i) == null;
+    }
+
+    ByteBuffer data() {
+        return data;
+    }
+
+    int fieldOffset(int i) {
+        return offset + fieldOffsets[i];
+    }
+
+    /**
+     * Serializes as a plain Tuple with every field decoded.
+     */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i));
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used eviction: the page whose last access is the oldest is
+ * evicted first. This is the default policy of the BufferPool.
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+
+    // access-ordered, so iteration starts at the least recently used page
+    private final LinkedHashMap<PageId, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        order.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        order.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        Iterator<PageId> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K eviction (O'Neil et al.): the victim is the page whose K-th most
+ * recent access is the oldest. Pages referenced fewer than K times have an
+ * infinite backward K-distance and are evicted first, oldest first access
+ * first, so a single sequential scan cannot flush frequently used pages.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock = 0;
+    // per page, the last k access times; history[0] is the most recent
+    private final Map<PageId, long[]> history = new HashMap<>();
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references to consider, at least 1
+     */
+    public LRUKEvictionPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        this.k = k;
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        long[] times = history.computeIfAbsent(pid, p -> new long[k]);
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        history.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        boolean victimFull = true;
+        long victimTime = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] times = e.getValue();
+            // unused history slots are 0, so times[k - 1] == 0 means fewer than k references
+            boolean full = times[k - 1] != 0;
+            long time = full ? times[k - 1] : oldestReference(times);
+            boolean better = victim == null
+                    || (!full && victimFull)
+                    || (full == victimFull && time < victimTime);
+            if (better && evictable.test(e.getKey())) {
+                victim = e.getKey();
+                victimFull = full;
+                victimTime = time;
+            }
+        }
+        if (victim != null)
+            history.remove(victim);
+        return victim;
+    }
+
+    private static long oldestReference(long[] times) {
+        long oldest = times[0];
+        for (long t : times) {
+            if (t != 0)
+                oldest = t;
+        }
+        return oldest;
+    }
+}
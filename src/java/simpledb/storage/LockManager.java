@@ -1,159 +1,265 @@
 package simpledb.storage;
 
-import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager grants page-level shared (Read) and exclusive (Write) locks to
+ * transactions. A transaction that cannot be granted a lock parks on the
+ * condition queue of that page and is woken when a holder releases it.
+ * <p>
+ * Deadlocks are detected with a wait-for graph: whenever a transaction starts
+ * (or keeps) waiting, the graph is searched for a cycle through it, and the
+ * youngest transaction of the cycle is aborted with a
+ * {@link TransactionAbortedException}.
+ * <p>
+ * Several threads may work for the same transaction (see
+ * {@link simpledb.execution.Gather}), so a transaction may wait for several
+ * pages at once. Every thread of a deadlock victim is woken and aborts, and
+ * so does any thread of it that would wait afterwards, until the
+ * transaction releases its locks.
+ * <p>
+ * Besides the per-page lock table, the locks of each transaction are indexed
+ * by TransactionId, so that releasing them at commit or abort costs time
+ * proportional to the number of locks the transaction holds. Pages with no
+ * holders and no waiters are dropped from the lock table.
+ */
 public class LockManager {
     public static enum LockType {
         Read,
         Write
     }
-    private class LockNode {
-        public LockType needLockType;
-        public TransactionId tid;
-        public boolean isAwarded;
 
-        public LockNode(LockType lockType, TransactionId tid, boolean isAwarded) {
-            this.needLockType = lockType;
-            this.tid = tid;
-            this.isAwarded = isAwarded;
+    private static class PageLock {
+        final Map<TransactionId, LockType> holders = new HashMap<>();
+        // waiters for this page park here
+        final Condition released;
+        int waiters = 0;
+
+        PageLock(Condition released) {
+            this.released = released;
         }
     }
 
-    public Map<PageId, List<LockNode>> lockTable;
+    // guards all of the state below; held only for bookkeeping, never while parked
+    private final ReentrantLock latch = new ReentrantLock();
+    private final Map<PageId, PageLock> lockTable = new HashMap<>();
+    // the locks each transaction holds, with their mode
+    private final Map<TransactionId, Map<PageId, LockType>> txnLocks = new HashMap<>();
+    // wait-for graph: a waiting transaction points at the pages its threads
+    // wait for, with the number of threads waiting for each, and through
+    // those pages at every other holder
+    private final Map<TransactionId, Map<PageId, Integer>> waitingFor = new HashMap<>();
+    // transactions chosen as deadlock victims, until they release their locks
+    private final Set<TransactionId> victims = new HashSet<>();
 
-    public LockManager() {
-        this.lockTable = new ConcurrentHashMap<>();
+    /**
+     * Acquires a lock of the given type on pageId for tid, blocking while
+     * another transaction holds a conflicting lock. A Read lock held alone is
+     * upgraded to a Write lock.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim of a
+     *                                     deadlock, or was interrupted while waiting
+     */
+    public void acquireLock(TransactionId tid, PageId pageId, LockType lockType)
+            throws TransactionAbortedException {
+        latch.lock();
+        PageLock lock = lockTable.computeIfAbsent(pageId, p -> new PageLock(latch.newCondition()));
+        boolean waiting = false;
+        try {
+            while (!isGrantable(lock, tid, lockType)) {
+                if (victims.contains(tid))
+                    throw new TransactionAbortedException();
+                if (!waiting) {
+                    waitingFor.computeIfAbsent(tid, t -> new HashMap<>()).merge(pageId, 1, Integer::sum);
+                    waiting = true;
+                }
+                List<TransactionId> cycle = findCycle(tid);
+                if (cycle != null) {
+                    TransactionId victim = youngest(cycle);
+                    abort(victim);
+                    if (victim.equals(tid))
+                        throw new TransactionAbortedException();
+                }
+                lock.waiters++;
+                try {
+                    lock.released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                } finally {
+                    lock.waiters--;
+                }
+                if (victims.contains(tid))
+                    throw new TransactionAbortedException();
+            }
+            LockType held = lock.holders.get(tid);
+            if (held != LockType.Write) {
+                lock.holders.put(tid, lockType);
+                txnLocks.computeIfAbsent(tid, t -> new HashMap<>()).put(pageId, lockType);
+            }
+        } finally {
+            if (waiting)
+                stopWaiting(tid, pageId);
+            collect(pageId, lock);
+            latch.unlock();
+        }
     }
 
-    // 插入lock table   不支持同一个事务加两个相同的锁
-    public synchronized void acquireLock(TransactionId tid, PageId pageId, LockType lockType){
-        LockNode newLockNode = new LockNode(lockType, tid, false);
-        // 插入lock table
-        if(lockTable.containsKey(pageId)) {
-            List<LockNode> nodes = lockTable.get(pageId);
-            for(LockNode node: nodes) {
-                if(node.tid.equals(tid) && node.needLockType == lockType)
-                    return ;
-            }
-            lockTable.get(pageId).add(newLockNode);
-        } else {
-            List<LockNode> nodes = new ArrayList<>();
-            nodes.add(newLockNode);
-            lockTable.put(pageId, nodes);
+    private void stopWaiting(TransactionId tid, PageId pageId) {
+        Map<PageId, Integer> pages = waitingFor.get(tid);
+        if (pages.merge(pageId, -1, Integer::sum) == 0) {
+            pages.remove(pageId);
+            if (pages.isEmpty())
+                waitingFor.remove(tid);
         }
     }
 
-    // 判断是否可以获取锁 可以就加锁 ** 在这个函数里实际加锁 **
-    // 锁升级 如果事务t是唯一一个在对象o上持有共享锁的事务，则 t可以将其在o上的锁升级为独占锁。
-    public synchronized boolean tryLock(TransactionId tid, PageId pageId, LockType lockType) {
-        List<LockNode> nodes = lockTable.get(pageId);
-        // 就这一个等待锁的 直接给他
-        if(nodes.size() == 1) {
-            nodes.get(0).isAwarded = true;
-            return true;
+    /**
+     * Marks tid as a deadlock victim, and wakes each of its threads that
+     * waits for a page so that it aborts.
+     */
+    private void abort(TransactionId tid) {
+        victims.add(tid);
+        Map<PageId, Integer> pages = waitingFor.get(tid);
+        if (pages != null) {
+            for (PageId pageId : pages.keySet())
+                lockTable.get(pageId).released.signalAll();
         }
+    }
 
-        Iterator<LockNode> iterator = nodes.listIterator();
-        LockNode itself = null;
-        while(iterator.hasNext()) {
-            LockNode now = iterator.next();
-            if(now.tid.equals(tid) && now.needLockType == lockType) {
-                itself = now;
-                break;
-            }
+    private boolean isGrantable(PageLock lock, TransactionId tid, LockType lockType) {
+        for (Map.Entry<TransactionId, LockType> e : lock.holders.entrySet()) {
+            if (e.getKey().equals(tid))
+                continue;
+            if (lockType == LockType.Write || e.getValue() == LockType.Write)
+                return false;
         }
+        return true;
+    }
 
-        Iterator<LockNode> iterator2 = nodes.listIterator();
-        while(iterator2.hasNext()){
-            LockNode now = iterator2.next();
-            if(now.tid.equals(tid) && now.needLockType == lockType) {
-                now.isAwarded = true;
-                return true;
-            }
-            if(now.isAwarded) {
-                // 是该事务 但肯定不是同一把锁
-                if(now.tid.equals(tid)) {
-                    // 该事务已经获得了写锁 那肯定只有一个事物能获得写锁 直接给他读锁
-                    if(now.needLockType == LockType.Write && lockType == LockType.Read) {
-                        itself.isAwarded = true;
+    /**
+     * Searches the wait-for graph for a cycle through start.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        List<TransactionId> path = new ArrayList<>();
+        return findCycle(start, start, path, new HashSet<>()) ? path : null;
+    }
+
+    private boolean findCycle(TransactionId cur, TransactionId start,
+                              List<TransactionId> path, Set<TransactionId> visited) {
+        path.add(cur);
+        Map<PageId, Integer> waiting = waitingFor.get(cur);
+        if (waiting != null) {
+            for (PageId pageId : waiting.keySet()) {
+                for (TransactionId holder : lockTable.get(pageId).holders.keySet()) {
+                    if (holder.equals(cur))
+                        continue;
+                    if (holder.equals(start))
+                        return true;
+                    if (visited.add(holder) && findCycle(holder, start, path, visited))
                         return true;
-                    }
-                    // 如果该事务获取了读锁  可能有多个事务获取了读锁 只能只有该事务获取读锁的时候进行锁升级
-                    else if(now.needLockType == LockType.Read && lockType == LockType.Write) {
-                    }
-
-                } else {
-                    if(now.needLockType == LockType.Read) {
-                        if(lockType == LockType.Read) {
-                            itself.isAwarded = true;
-                            return true;
-                        }
-                        else
-                            return false;
-                    }
-                    else
-                        return false;
                 }
-            } else {
-                return false;
             }
         }
-
+        path.remove(path.size() - 1);
         return false;
     }
 
+    private static TransactionId youngest(List<TransactionId> tids) {
+        TransactionId res = tids.get(0);
+        for (TransactionId tid : tids) {
+            if (tid.getId() > res.getId())
+                res = tid;
+        }
+        return res;
+    }
+
+    /**
+     * Drops the lock table entry of a page nobody holds or waits for.
+     */
+    private void collect(PageId pageId, PageLock lock) {
+        if (lock.holders.isEmpty() && lock.waiters == 0)
+            lockTable.remove(pageId, lock);
+    }
+
     // 释放某事务在某page上的锁
-    public synchronized void releaseLock(TransactionId tid, PageId pageId) {
-        if(!lockTable.containsKey(pageId)) return ;
-        List<LockNode> nodes = lockTable.get(pageId);
-        Iterator<LockNode> iterator = nodes.iterator();
-        while(iterator.hasNext()) {
-            LockNode now = iterator.next();
-            if(now.tid.equals(tid)) {
-                iterator.remove();
+    public void releaseLock(TransactionId tid, PageId pageId) {
+        latch.lock();
+        try {
+            Map<PageId, LockType> held = txnLocks.get(tid);
+            if (held != null) {
+                held.remove(pageId);
+                if (held.isEmpty())
+                    txnLocks.remove(tid);
             }
+            release(tid, pageId);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    private void release(TransactionId tid, PageId pageId) {
+        PageLock lock = lockTable.get(pageId);
+        if (lock != null && lock.holders.remove(tid) != null) {
+            lock.released.signalAll();
+            collect(pageId, lock);
         }
     }
 
     public boolean holdsLock(TransactionId tid, PageId pageId) {
-        if(!lockTable.containsKey(pageId)) {
-            try {
-                throw new DbException("该页上没有锁");
-            } catch (DbException e) {
-                e.printStackTrace();
-            }
+        latch.lock();
+        try {
+            PageLock lock = lockTable.get(pageId);
+            return lock != null && lock.holders.containsKey(tid);
+        } finally {
+            latch.unlock();
         }
-        List<LockNode> nodes = lockTable.get(pageId);
-        for(LockNode node: nodes) {
-            if(node.isAwarded && node.tid.equals(tid)) {
-                return true;
+    }
+
+    public List<PageId> releaseAllLocks(TransactionId tid) {
+        latch.lock();
+        try {
+            Map<PageId, LockType> held = txnLocks.remove(tid);
+            victims.remove(tid);
+            if (held == null)
+                return new ArrayList<>();
+            for (PageId pageId : held.keySet()) {
+                release(tid, pageId);
             }
+            return new ArrayList<>(held.keySet());
+        } finally {
+            latch.unlock();
         }
-        return false;
     }
 
-    public synchronized List<PageId> releaseAllLocks(TransactionId tid) {
-        List<PageId> res = affectedPages(tid);
-        for(PageId pageId: res) {
-            releaseLock(tid, pageId);
-        }
-        return res;
+    // 事务结束: the pages tid holds a lock on
+    public List<PageId> affectedPages(TransactionId tid) {
+        return new ArrayList<>(getLocks(tid).keySet());
     }
 
-    // 事务结束
-    public synchronized List<PageId> affectedPages(TransactionId tid) {
-        List<PageId> res = new ArrayList<>();
-        for(PageId pageId: lockTable.keySet()) {
-            res.add(pageId);
+    /**
+     * @return the pages tid holds a lock on, with the mode of each lock
+     */
+    public Map<PageId, LockType> getLocks(TransactionId tid) {
+        latch.lock();
+        try {
+            Map<PageId, LockType> held = txnLocks.get(tid);
+            return held == null ? Collections.emptyMap() : new HashMap<>(held);
+        } finally {
+            latch.unlock();
         }
-        return res;
     }
 }
-
@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile maps a whole file into memory read-only and hands out slices of
+ * it, so that pages can be decoded straight from the page cache without being
+ * copied into the Java heap first. The file must not change while it is
+ * mapped.
+ * <p>
+ * A single mapping cannot exceed 2 GiB, so the file is mapped in chunks of
+ * {@link #CHUNK_BYTES}. A slice that straddles two chunks is copied.
+ */
+public class MappedFile {
+
+    /** Default size of each mapped chunk; a multiple of any page size. */
+    public static final long CHUNK_BYTES = 1L << 30;
+
+    private final File f;
+    private final long chunkBytes;
+    private volatile MappedByteBuffer[] chunks;
+    private long size;
+
+    public MappedFile(File f) {
+        this(f, CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes the size of each mapped chunk, at most
+     *                   Integer.MAX_VALUE
+     */
+    public MappedFile(File f, long chunkBytes) {
+        if (chunkBytes < 1 || chunkBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid chunk size " + chunkBytes);
+        this.f = f;
+        this.chunkBytes = chunkBytes;
+    }
+
+    private MappedByteBuffer[] chunks() throws IOException {
+        MappedByteBuffer[] bufs = chunks;
+        if (bufs == null) {
+            synchronized (this) {
+                bufs = chunks;
+                if (bufs == null) {
+                    // the mappings stay valid after the channel is closed
+                    try (FileChannel ch = new RandomAccessFile(f, "r").getChannel()) {
+                        size = ch.size();
+                        bufs = new MappedByteBuffer[(int) ((size + chunkBytes - 1) / chunkBytes)];
+                        for (int i = 0; i < bufs.length; i++) {
+                            long start = i * chunkBytes;
+                            bufs[i] = ch.map(FileChannel.MapMode.READ_ONLY, start,
+                                    Math.min(chunkBytes, size - start));
+                        }
+                    }
+                    chunks = bufs;
+                }
+            }
+        }
+        return bufs;
+    }
+
+    /**
+     * Returns a read-only view of len bytes at offset.
+     *
+     * @return the slice, or null if it does not lie entirely within the file
+     */
+    public ByteBuffer slice(long offset, int len) throws IOException {
+        MappedByteBuffer[] bufs = chunks();
+        if (offset < 0 || offset + len > size)
+            return null;
+        int i = (int) (offset / chunkBytes);
+        int start = (int) (offset % chunkBytes);
+        if (len == 0 || start + len <= bufs[i].capacity()) {
+            ByteBuffer view = bufs[i].duplicate();
+            view.position(start);
+            view.limit(start + len);
+            return view.slice();
+        }
+        // straddles chunks: copy the pieces
+        byte[] copy = new byte[len];
+        for (int done = 0; done < len; i++, start = 0) {
+            ByteBuffer view = bufs[i].duplicate();
+            view.position(start);
+            int n = Math.min(len - done, view.remaining());
+            view.get(copy, done, n);
+            done += n;
+        }
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    /**
+     * Drops the mappings; the file is mapped again if it is read after this.
+     * The memory is released once the slices handed out are unreachable.
+     */
+    public synchronized void close() {
+        chunks = null;
+    }
+}
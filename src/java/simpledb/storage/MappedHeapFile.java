@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * MappedHeapFile is a read-only HeapFile for tables that are bulk-loaded once
+ * (e.g. by {@link HeapFileEncoder#convert}) and then only scanned. The file is
+ * memory-mapped, and readPage decodes each HeapPage directly from a slice of
+ * the mapping instead of reading it into a fresh byte array.
+ * <p>
+ * Inserting or deleting tuples fails with a DbException.
+ *
+ * @see simpledb.common.Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private final MappedFile mapped;
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.mapped = new MappedFile(f);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        int pageSize = BufferPool.getPageSize();
+        try {
+            HeapPageId id = new HeapPageId(pid.getTableId(), pgNo);
+            ByteBuffer data = mapped.slice((long) pgNo * pageSize, pageSize);
+            // like HeapFile, a page past the end of the file is empty
+            if (data == null)
+                return new HeapPage(id, HeapPage.createEmptyPageData());
+            return new HeapPage(id, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("MappedHeapFile: readPage: cannot map " + getFile(), e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        throw new IOException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples) throws DbException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        mapped.close();
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A tuple that stores its values without a Field object per value:
+ * INT_TYPE values in an int[], and STRING_TYPE values as the offsets of
+ * strings, in the page format, in buffers shared with other tuples, such as
+ * the pages they were read from. A Field is created only when getField is
+ * called, so operators that read values through {@link #getInt} and
+ * {@link #getString} create none.
+ * <p>
+ * A field that is set explicitly replaces the stored value, as for any Tuple.
+ * 按基本类型存储值的元组
+ */
+public class PackedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+    private final TupleDesc td;
+    // the value of each int field, and the offset of each string field in
+    // its buffer
+    private final int[] values;
+    // the buffer of each string field that is not stored as a Field
+    private final transient ByteBuffer[] strings;
+
+    /**
+     * Creates a tuple whose int fields are 0 and whose string fields are not
+     * set.
+     */
+    public PackedTuple(TupleDesc td) {
+        super(td);
+        this.td = td;
+        values = new int[td.numFields()];
+        strings = new ByteBuffer[td.numFields()];
+    }
+
+    /**
+     * @return a tuple with the fields of t1 followed by those of t2, as
+     *         returned by joins
+     */
+    public static PackedTuple merge(Tuple t1, Tuple t2, TupleDesc td) {
+        PackedTuple t = new PackedTuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.copy(t1, i, i);
+        for (int i = n1; i < td.numFields(); i++)
+            t.copy(t2, i - n1, i);
+        return t;
+    }
+
+    /**
+     * Sets field to of this tuple to field from of src, sharing the bytes or
+     * Field src stores rather than creating a Field.
+     */
+    public void copy(Tuple src, int from, int to) {
+        if (td.getFieldType(to) == Type.INT_TYPE) {
+            setInt(to, src.getInt(from));
+        } else if (src instanceof PackedTuple && ((PackedTuple) src).strings[from] != null) {
+            PackedTuple p = (PackedTuple) src;
+            setString(to, p.strings[from], p.values[from]);
+        } else if (src instanceof HeapPageTuple && ((HeapPageTuple) src).raw(from)) {
+            HeapPageTuple h = (HeapPageTuple) src;
+            setString(to, h.data(), h.fieldOffset(from));
+        } else {
+            setField(to, src.getField(from));
+        }
+    }
+
+    /**
+     * Sets INT_TYPE field i to v.
+     */
+    public void setInt(int i, int v) {
+        values[i] = v;
+        super.setField(i, null);
+    }
+
+    /**
+     * Sets STRING_TYPE field i to the string stored in the page format at
+     * offset in buf. The buffer is shared, not copied.
+     */
+    public void setString(int i, ByteBuffer buf, int offset) {
+        strings[i] = buf;
+        values[i] = offset;
+        super.setField(i, null);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        super.setField(i, f);
+        if (f instanceof IntField)
+            values[i] = ((IntField) f).getValue();
+        strings[i] = null;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                f = new IntField(values[i]);
+            else if (strings[i] != null)
+                f = Type.STRING_TYPE.parse(strings[i], values[i]);
+            else
+                return null;
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    @Override
+    public int getInt(int i) {
+        return values[i];
+    }
+
+    @Override
+    public String getString(int i) {
+        ByteBuffer buf = strings[i];
+        if (buf == null)
+            return super.getString(i);
+        byte[] bs = new byte[buf.getInt(values[i])];
+        buf.duplicate().position(values[i] + 4).get(bs);
+        return new String(bs);
+    }
+
+    /**
+     * Serializes as a plain Tuple with every field decoded.
+     */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i));
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
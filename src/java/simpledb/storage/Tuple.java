@@ -74,6 +74,26 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Tuples that store values without a Field object return them here
+     * without creating one.
+     *
+     * @param i index of an INT_TYPE field. Must be a valid index.
+     * @return the value of the ith field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @param i index of a STRING_TYPE field. Must be a valid index.
+     * @return the value of the ith field
+     * @see #getInt
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -85,8 +105,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // TODO: some code goes here
         String res = "";
-        for(Field field: fields) {
-            res = res + field.toString() + " ";
+        for(int i = 0; i < fields.length; i++) {
+            res = res + getField(i).toString() + " ";
         }
 
         return res;
@@ -106,7 +126,7 @@ public class Tuple implements Serializable {
 
             @Override
             public Field next() {
-                return fields[++cur];
+                return getField(++cur);
             }
         };
     }
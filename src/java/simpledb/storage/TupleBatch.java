@@ -0,0 +1,245 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to a fixed number of rows column by column: an int[] per
+ * INT_TYPE column and a String[] per STRING_TYPE column, so operators can loop
+ * over a column without a Field object per value.
+ * <p>
+ * A selection vector lists the rows that are part of the batch, in order;
+ * filtering a batch only shrinks its selection, and leaves the columns as they
+ * are. Without a selection vector every row is selected.
+ * 按列存储的一批元组
+ */
+public class TupleBatch {
+
+    private final TupleDesc td;
+    private final int capacity;
+    // one of the two is set per column, depending on its type
+    private final int[][] ints;
+    private final String[][] strings;
+    private int rows;
+    // the selected rows, or null if all rows are selected
+    private int[] sel;
+    private int selected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td       the schema of the rows
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    /**
+     * @return the schema of the rows
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows, selected or not
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return true if no row can be added
+     */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return sel == null ? rows : selected;
+    }
+
+    /**
+     * @param i the index of a selected row, from 0 to size() - 1
+     * @return the row number of the ith selected row
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * @return the selection vector, whose first size() entries are the
+     *         selected rows, or null if every row is selected
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Selects the rows sel[0] to sel[n - 1], which must be in increasing
+     * order. The batch keeps sel, so the caller must not change it.
+     */
+    public void select(int[] sel, int n) {
+        this.sel = sel;
+        this.selected = n;
+    }
+
+    /**
+     * Removes all rows, and the selection vector.
+     */
+    public void clear() {
+        rows = 0;
+        sel = null;
+        selected = 0;
+    }
+
+    /**
+     * @return the values of INT_TYPE column i, indexed by row number
+     */
+    public int[] intColumn(int i) {
+        if (ints[i] == null)
+            throw new IllegalArgumentException("column " + i + " is not an int column");
+        return ints[i];
+    }
+
+    /**
+     * @return the values of STRING_TYPE column i, indexed by row number
+     */
+    public String[] stringColumn(int i) {
+        if (strings[i] == null)
+            throw new IllegalArgumentException("column " + i + " is not a string column");
+        return strings[i];
+    }
+
+    /**
+     * @return the value of column i in row number row, as a Field
+     */
+    public Field getField(int i, int row) {
+        if (ints[i] != null)
+            return new IntField(ints[i][row]);
+        return new StringField(strings[i][row], Type.STRING_LEN);
+    }
+
+    /**
+     * Adds an empty row, whose values are then set through the columns. The
+     * batch must have no selection vector.
+     *
+     * @return the row number of the new row
+     */
+    public int addRow() {
+        if (rows == capacity)
+            throw new IllegalStateException("batch is full");
+        if (sel != null)
+            throw new IllegalStateException("cannot add rows to a filtered batch");
+        return rows++;
+    }
+
+    /**
+     * Adds a row holding the fields of t.
+     */
+    public void add(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++)
+            set(i, row, t, i);
+    }
+
+    /**
+     * Sets the value of column i in row number row to field from of t,
+     * read through {@link Tuple#getInt} or {@link Tuple#getString}.
+     */
+    public void set(int i, int row, Tuple t, int from) {
+        if (ints[i] != null)
+            ints[i][row] = t.getInt(from);
+        else
+            strings[i][row] = t.getString(from);
+    }
+
+    /**
+     * Sets the value of column i in row number row.
+     */
+    public void set(int i, int row, Field f) {
+        if (ints[i] != null)
+            ints[i][row] = ((IntField) f).getValue();
+        else
+            strings[i][row] = ((StringField) f).getValue();
+    }
+
+    /**
+     * Copies column from of row number fromRow of batch src to column to of
+     * row number row of this batch. The columns must have the same type.
+     */
+    public void copy(TupleBatch src, int from, int fromRow, int to, int row) {
+        if (ints[to] != null)
+            ints[to][row] = src.intColumn(from)[fromRow];
+        else
+            strings[to][row] = src.stringColumn(from)[fromRow];
+    }
+
+    /**
+     * @return a new Tuple holding the values of row number row
+     */
+    public Tuple getTuple(int row) {
+        if (row < 0 || row >= rows)
+            throw new NoSuchElementException();
+        PackedTuple t = new PackedTuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                t.setInt(i, ints[i][row]);
+            else
+                t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * Returns a batch over columns cols[0], cols[1], ... of this batch, with
+     * the same rows and selection. The columns are shared, not copied.
+     *
+     * @param cols the columns of this batch in the returned batch
+     * @param td   the schema of the returned batch
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] pints = new int[cols.length][];
+        String[][] pstrings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pints[i] = ints[cols[i]];
+            pstrings[i] = strings[cols[i]];
+        }
+        TupleBatch b = new TupleBatch(td, capacity, pints, pstrings);
+        b.rows = rows;
+        b.sel = sel;
+        b.selected = selected;
+        return b;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q eviction (Johnson and Shasha). Newly loaded pages enter a FIFO queue
+ * (A1in); only pages that are referenced again after falling out of it, as
+ * remembered by a queue of page ids without data (A1out), are promoted to the
+ * LRU-managed main queue (Am). Scans therefore only churn A1in.
+ * <p>
+ * The queue sizes follow the paper's recommendation relative to the number of
+ * resident pages: A1in holds about a quarter of them and A1out remembers about
+ * half as many ids.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        if (am.containsKey(pid)) {
+            am.get(pid);
+        } else if (!a1in.contains(pid)) {
+            if (a1out.remove(pid))
+                am.put(pid, Boolean.TRUE);
+            else
+                a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        int kin = Math.max(1, (a1in.size() + am.size()) / 4);
+        PageId victim;
+        if (a1in.size() >= kin) {
+            victim = evictFrom(a1in.iterator(), evictable, true);
+            if (victim == null)
+                victim = evictFrom(am.keySet().iterator(), evictable, false);
+        } else {
+            victim = evictFrom(am.keySet().iterator(), evictable, false);
+            if (victim == null)
+                victim = evictFrom(a1in.iterator(), evictable, true);
+        }
+        return victim;
+    }
+
+    private PageId evictFrom(Iterator<PageId> it, Predicate<PageId> evictable, boolean fromA1in) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                if (fromA1in)
+                    remember(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        int kout = Math.max(1, (a1in.size() + am.size()) / 2);
+        Iterator<PageId> it = a1out.iterator();
+        while (a1out.size() > kout) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -191,6 +191,69 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates per group
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+                              Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 12, 2, 6, 3,
+                    3, 12, 2, 6, 3,
+                    5, 7, 7, 7, 1 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() with several aggregates and no grouping
+   */
+  @Test public void multipleAggregatesNoGrouping() throws Exception {
+    Aggregate op = new Aggregate(scan2, new int[] { 0, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    assertEquals(Utility.getTupleDesc(2), op.getTupleDesc());
+    OpIterator expected = TestUtil.createTupleList(2, new int[] { 17, 7 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouping on several fields, with fewer
+   * groups held in memory than the input has
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    2, 1, 6,
+                    1, 1, 8,
+                    2, 1, 1,
+                    2, 2, 3,
+                    1, 2, 5 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 1, 10, 2,
+                    1, 2, 9, 2,
+                    2, 1, 7, 2,
+                    2, 2, 3, 1 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }, 2);
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(4, n);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
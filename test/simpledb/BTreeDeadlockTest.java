@@ -20,12 +20,17 @@ import org.junit.Test;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
 
+import static org.junit.Assert.assertTrue;
+
 public class BTreeDeadlockTest extends SimpleDbTestBase {
 	private Random rand;
 
 	private static final int POLL_INTERVAL = 100;
 	private static final int WAIT_INTERVAL = 200;
 
+	/** Upper bound for resolving the deadlock, in ms */
+	private static final int MAX_RESOLUTION_TIME = 10000;
+
 	// just so we have a pointer shorter than Database.getBufferPool
 	private BufferPool bp;
 	private BTreeFile bf;
@@ -114,11 +119,14 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 		// allow read locks to acquire
 		Thread.sleep(POLL_INTERVAL);
 		
+		long start = System.currentTimeMillis();
 		BTreeWriter writer1 = startWriter(tid1, item1, count1);
 		BTreeWriter writer2 = startWriter(tid2, item2, count2);
 
 		while (true) {
 			Thread.sleep(POLL_INTERVAL);
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("deadlock unresolved after " + elapsed + "ms", elapsed < MAX_RESOLUTION_TIME);
 
 			if(writer1.succeeded() || writer2.succeeded()) break;
 
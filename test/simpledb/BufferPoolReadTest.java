@@ -0,0 +1,210 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+
+    // HeapFile whose reads are slow and counted, so concurrent misses overlap
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger prefetchReads = new AtomicInteger();
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(0);
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            if (Thread.currentThread().getName().equals("BufferPool-prefetch"))
+                prefetchReads.incrementAndGet();
+            readStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile createSlowHeapFile() throws Exception {
+        return createSlowHeapFile(2000);
+    }
+
+    private SlowHeapFile createSlowHeapFile(int rows) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        SlowHeapFile slow = new SlowHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        return slow;
+    }
+
+    /**
+     * Threads that miss on the same page while it is being read share one
+     * disk read and get the same page.
+     */
+    @Test public void singleFlightLoad() throws Exception {
+        SlowHeapFile hf = createSlowHeapFile();
+        hf.release = new CountDownLatch(1);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(hf.getId(), 0);
+
+        int nthreads = 8;
+        List<Thread> threads = new ArrayList<>();
+        Page[] results = new Page[nthreads];
+        for (int i = 0; i < nthreads; i++) {
+            final int n = i;
+            threads.add(new Thread(() -> {
+                try {
+                    results[n] = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        hf.readStarted.await();
+        // give the other threads time to miss on the page being read
+        Thread.sleep(100);
+        hf.release.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(1, hf.reads.get());
+        for (Page p : results)
+            assertSame(results[0], p);
+    }
+
+    /**
+     * A hit on a cached page does not wait for another thread's disk read.
+     */
+    @Test public void hitDuringRead() throws Exception {
+        SlowHeapFile hf = createSlowHeapFile();
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId cached = new HeapPageId(hf.getId(), 0);
+        PageId slow = new HeapPageId(hf.getId(), 1);
+        bp.getPage(new TransactionId(), cached, Permissions.READ_ONLY);
+
+        hf.release = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            try {
+                bp.getPage(new TransactionId(), slow, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        while (hf.reads.get() < 2)
+            Thread.sleep(1);
+
+        assertNotNull(bp.getPage(new TransactionId(), cached, Permissions.READ_ONLY));
+        hf.release.countDown();
+        reader.join();
+    }
+
+    /**
+     * A miss on a full pool whose only other page is still being read waits
+     * for that read and evicts the page, rather than failing.
+     */
+    @Test public void missWhileOtherPageLoads() throws Exception {
+        SlowHeapFile hf = createSlowHeapFile();
+        hf.release = new CountDownLatch(1);
+        BufferPool bp = Database.resetBufferPool(1);
+        Exception[] errors = new Exception[2];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final int n = i;
+            threads.add(new Thread(() -> {
+                try {
+                    bp.getPage(new TransactionId(), new HeapPageId(hf.getId(), n), Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    errors[n] = e;
+                }
+            }));
+        }
+        threads.get(0).start();
+        hf.readStarted.await();
+        threads.get(1).start();
+        Thread.sleep(100);
+        assertNull(errors[1]);
+        hf.release.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertNull(errors[0]);
+        assertNull(errors[1]);
+        assertEquals(2, hf.reads.get());
+    }
+
+    /**
+     * A sequential scan reads pages ahead in the background, and every page
+     * is still read from disk only once.
+     */
+    @Test public void readAhead() throws Exception {
+        SlowHeapFile hf = createSlowHeapFile(20000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int numPages = hf.numPages();
+        assertTrue(numPages > 20);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, 8);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(20000, count);
+        assertEquals(numPages, hf.reads.get());
+        assertTrue(hf.prefetchReads.get() > 0);
+    }
+
+    /**
+     * A scan with read-ahead disabled reads every page itself.
+     */
+    @Test public void noReadAhead() throws Exception {
+        SlowHeapFile hf = createSlowHeapFile(20000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, 0);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(hf.numPages(), hf.reads.get());
+        assertEquals(0, hf.prefetchReads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
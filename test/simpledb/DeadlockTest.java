@@ -16,6 +16,8 @@ import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
   private PageId p0;
@@ -26,6 +28,9 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
   private static final int POLL_INTERVAL = 100;
   private static final int WAIT_INTERVAL = 200;
 
+  /** Upper bound for detecting a deadlock or waking a waiter, in ms */
+  private static final int MAX_LATENCY = 100;
+
   // just so we have a pointer shorter than Database.getBufferPool
   private BufferPool bp;
 
@@ -222,6 +227,99 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Waits until grabber has either acquired its lock or failed, and returns
+   * how long that took in ms (or fails the test after a second).
+   */
+  private long awaitOutcome(LockGrabber lg, long startNanos) throws Exception {
+    while (!lg.acquired() && lg.getError() == null) {
+      assertTrue("no outcome after 1s", System.nanoTime() - startNanos < 1_000_000_000L);
+      Thread.sleep(1);
+    }
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+
+  /**
+   * A deadlock is broken as soon as the cycle forms, by aborting the
+   * youngest transaction, rather than after a lock timeout.
+   */
+  @Test public void testDeadlockDetectionLatency() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+
+    long start = System.nanoTime();
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    long elapsed = awaitOutcome(lg2, start);
+    assertTrue("deadlock took " + elapsed + "ms to detect", elapsed < MAX_LATENCY);
+
+    // tid2 is younger, so it is the victim and tid1 proceeds
+    assertTrue(lg2.getError() != null);
+    elapsed = awaitOutcome(lg1, start);
+    assertTrue("waiter took " + elapsed + "ms to wake", elapsed < MAX_LATENCY);
+    assertTrue(lg1.acquired());
+    assertNull(lg1.getError());
+  }
+
+  /**
+   * Releasing a lock wakes a transaction waiting for it right away.
+   */
+  @Test public void testWakeupLatency() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg2.acquired());
+
+    long start = System.nanoTime();
+    bp.transactionComplete(tid1);
+    long elapsed = awaitOutcome(lg2, start);
+    assertTrue("waiter took " + elapsed + "ms to wake", elapsed < MAX_LATENCY);
+    assertTrue(lg2.acquired());
+  }
+
+  /**
+   * Several threads of one transaction wait for different pages when it
+   * becomes a deadlock victim: each of them aborts, none keeps waiting.
+   */
+  @Test public void testVictimWithSeveralThreads() throws Exception {
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    // two threads of tid2; unlike a LockGrabber they leave tid2 running
+    Exception[] errors = new Exception[2];
+    PageId[] wanted = { p0, p2 };
+    Thread[] threads = new Thread[2];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread(() -> {
+        try {
+          bp.getPage(tid2, wanted[n], Permissions.READ_WRITE);
+        } catch (Exception e) {
+          errors[n] = e;
+        }
+      });
+      threads[i].start();
+    }
+    Thread.sleep(POLL_INTERVAL);
+
+    // tid1 closes the cycle; tid2 is younger, so it is the victim
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    for (Thread t : threads) {
+      t.join(1000);
+      assertFalse("a thread of the victim is still waiting", t.isAlive());
+    }
+    assertTrue(errors[0] != null && errors[1] != null);
+
+    bp.transactionComplete(tid2, false);
+    awaitOutcome(lg1, System.nanoTime());
+    assertTrue(lg1.acquired());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,128 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * LRU evicts the page that was accessed least recently.
+     */
+    @Test public void lru() {
+        EvictionPolicy policy = new LRUEvictionPolicy();
+        for (int i = 0; i < 3; i++)
+            policy.recordAccess(pid(i));
+        policy.recordAccess(pid(0));
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+        assertNull(policy.evict(p -> true));
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        for (int i = 0; i < 3; i++)
+            policy.recordAccess(pid(i));
+        // the first sweep clears every bit, the second evicts in ring order
+        assertEquals(pid(0), policy.evict(p -> true));
+        policy.recordAccess(pid(3));
+        policy.recordAccess(pid(1));
+        assertEquals(pid(2), policy.evict(p -> true));
+    }
+
+    /**
+     * LRU-K prefers pages referenced fewer than K times, so a page touched
+     * once by a scan goes before a page that is used repeatedly.
+     */
+    @Test public void lruK() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2);
+        policy.recordAccess(pid(0));
+        policy.recordAccess(pid(0));
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(2));
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+    }
+
+    /**
+     * 2Q promotes a page to the main queue only when it comes back after
+     * being evicted from the FIFO queue.
+     */
+    @Test public void twoQ() {
+        EvictionPolicy policy = new TwoQEvictionPolicy();
+        for (int i = 0; i < 4; i++)
+            policy.recordAccess(pid(i));
+        assertEquals(pid(0), policy.evict(p -> true));
+        // page 0 is remembered in A1out, so reloading it puts it in Am
+        policy.recordAccess(pid(0));
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(3), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+    }
+
+    /**
+     * Every policy skips pages that are not evictable and forgets removed ones.
+     */
+    @Test public void skipsUnevictable() {
+        EvictionPolicy[] policies = {new LRUEvictionPolicy(), new ClockEvictionPolicy(),
+                new LRUKEvictionPolicy(), new TwoQEvictionPolicy()};
+        for (EvictionPolicy policy : policies) {
+            for (int i = 0; i < 3; i++)
+                policy.recordAccess(pid(i));
+            policy.remove(pid(1));
+            assertEquals(pid(2), policy.evict(p -> !p.equals(pid(0))));
+            assertNull(policy.evict(p -> !p.equals(pid(0))));
+        }
+    }
+
+    /**
+     * A BufferPool built with each policy caches no more than numPages pages
+     * while scanning a larger table.
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        int numPages = hf.numPages();
+        assertTrue(numPages > 5);
+        EvictionPolicy[] policies = {new LRUEvictionPolicy(), new ClockEvictionPolicy(),
+                new LRUKEvictionPolicy(), new TwoQEvictionPolicy()};
+        for (EvictionPolicy policy : policies) {
+            BufferPool bp = new BufferPool(5, policy);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < numPages; i++) {
+                Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertEquals(i, p.getId().getPageNumber());
+            }
+            // hits return the cached copy
+            PageId last = new HeapPageId(hf.getId(), numPages - 1);
+            assertSame(bp.getPage(tid, last, Permissions.READ_ONLY),
+                    bp.getPage(tid, last, Permissions.READ_ONLY));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -9,12 +9,23 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.execution.CompoundPredicate;
 import simpledb.execution.Filter;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleAdapter;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -126,6 +137,66 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  private static CompoundPredicate pred(int field, Predicate.Op op, int value) {
+    return CompoundPredicate.of(new Predicate(field, op, new IntField(value)));
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for Filter.getNext() and Filter.nextBatch() using an AND and
+   * OR of predicates, over enough tuples for the operands to be reordered
+   */
+  @Test public void filterCompound() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 20000, 100, null, tuples);
+    TransactionId tid = new TransactionId();
+
+    // (c0 < 90 AND c1 = 7) OR c2 > 95
+    CompoundPredicate c = CompoundPredicate.or(Arrays.asList(
+        CompoundPredicate.and(Arrays.asList(
+            pred(0, Predicate.Op.LESS_THAN, 90),
+            pred(1, Predicate.Op.EQUALS, 7))),
+        pred(2, Predicate.Op.GREATER_THAN, 95)));
+    int expected = 0;
+    for (List<Integer> t : tuples) {
+      if ((t.get(0) < 90 && t.get(1) == 7) || t.get(2) > 95)
+        expected++;
+    }
+
+    assertEquals(expected, count(new Filter(c, new SeqScan(tid, f.getId(), "t"))));
+    assertEquals(expected, count(new TupleAdapter(new Filter(c, new SeqScan(tid, f.getId(), "t")))));
+  }
+
+  /**
+   * Unit test for Filter.getTestOrder(): an AND tests its rarely passed
+   * operand first once it has seen enough tuples
+   */
+  @Test public void reorder() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, null);
+    TransactionId tid = new TransactionId();
+    CompoundPredicate common = pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 0);
+    CompoundPredicate rare = pred(1, Predicate.Op.EQUALS, 3);
+    Filter op = new Filter(CompoundPredicate.and(Arrays.asList(common, rare)),
+        new SeqScan(tid, f.getId(), "t"));
+    assertEquals(common, op.getTestOrder().getOperands().get(0));
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertEquals(rare.getPredicate(),
+        op.getTestOrder().getOperands().get(0).getPredicate());
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,145 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GatherTest extends SimpleDbTestBase {
+
+    private static List<String> results(OpIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Gather returns the tuples of all its children, again after a rewind.
+     */
+    @Test public void gatherChildren() throws Exception {
+        OpIterator[] children = new OpIterator[4];
+        int[] allData = new int[4 * 300];
+        for (int c = 0; c < children.length; c++) {
+            int[] data = new int[300];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = c * 1000 + i;
+                allData[c * 300 + i] = data[i];
+            }
+            children[c] = TestUtil.createTupleList(1, data);
+        }
+        OpIterator all = TestUtil.createTupleList(1, allData);
+        // a queue smaller than the input makes the workers block
+        Gather op = new Gather(children, 100);
+        all.open();
+        List<String> expected = results(all);
+        op.open();
+        assertEquals(expected, results(op));
+        op.rewind();
+        assertEquals(expected, results(op));
+        op.close();
+    }
+
+    /**
+     * A filtered scan split into pipelines returns the tuples of the filtered
+     * scan.
+     */
+    @Test public void filteredScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        Filter filter = new Filter(p, new SeqScan(tid, f.getId(), "t"));
+
+        OpIterator[] parts = Gather.split(filter, 4);
+        assertEquals(4, parts.length);
+        Gather op = new Gather(parts);
+        assertEquals(filter.getTupleDesc().numFields(), op.getTupleDesc().numFields());
+        assertEquals(filter.getTupleDesc().getFieldName(0), op.getTupleDesc().getFieldName(0));
+
+        filter.open();
+        List<String> expected = results(filter);
+        filter.close();
+        op.open();
+        assertEquals(expected, results(op));
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Closing before the end stops the workers, and the operator can be
+     * opened again.
+     */
+    @Test public void closeEarly() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Gather op = new Gather(new SeqScan(tid, f.getId(), "t").split(4), 64);
+        op.open();
+        for (int i = 0; i < 10; i++)
+            op.next();
+        op.close();
+        op.open();
+        assertEquals(tuples.size(), results(op).size());
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A failure of a child is thrown by the Gather.
+     */
+    @Test(expected = DbException.class) public void childFailure() throws Exception {
+        OpIterator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("child failed");
+            }
+
+            public void rewind() {
+            }
+
+            public OpIterator[] getChildren() {
+                return new OpIterator[0];
+            }
+
+            public void setChildren(OpIterator[] children) {
+            }
+
+            public TupleDesc getTupleDesc() {
+                return TestUtil.createTupleList(1, new int[0]).getTupleDesc();
+            }
+        };
+        Gather op = new Gather(new OpIterator[] { TestUtil.createTupleList(1, new int[] { 1, 2 }), failing });
+        op.open();
+        try {
+            results(op);
+        } finally {
+            op.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GraceHashJoinTest extends SimpleDbTestBase {
+
+    private static TupleIterator randomTuples(int width, int rows, int keys, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i % width == 0 ? r.nextInt(keys) : r.nextInt();
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static List<String> results(OpIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * The planner hashes an equijoin in memory when its left side is
+     * estimated to fit, and partitions it to disk otherwise.
+     */
+    @Test public void chosenByPlanner() throws Exception {
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.f0", "b.f0", Predicate.Op.EQUALS);
+        OpIterator a = new TupleIterator(Utility.getTupleDesc(2, "a.f"), Collections.emptyList());
+        OpIterator b = new TupleIterator(Utility.getTupleDesc(2, "b.f"), Collections.emptyList());
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 1000, 1000, 10000, 10000)
+                instanceof HashEquiJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, GraceHashJoin.DEFAULT_MEMORY_TUPLES + 1,
+                1000, 1e7, 10000) instanceof GraceHashJoin);
+        // without an estimate, the join must not run out of memory
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof GraceHashJoin);
+    }
+
+    /**
+     * Joins that fit in memory return the same tuples as Join.
+     */
+    @Test public void inMemory() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator scan1 = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        OpIterator scan2 = TestUtil.createTupleList(3,
+                new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+        OpIterator expected = TestUtil.createTupleList(5,
+                new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+        GraceHashJoin op = new GraceHashJoin(pred, scan1, scan2);
+        assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+        op.open();
+        expected.open();
+        TestUtil.matchAllTuples(expected, op);
+        op.rewind();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(3, n);
+        op.close();
+    }
+
+    /**
+     * A build side larger than the memory budget is partitioned, with the
+     * same result.
+     */
+    @Test public void spill() throws Exception {
+        Random r = new Random(11);
+        TupleIterator left = randomTuples(2, 2000, 700, r);
+        TupleIterator right = randomTuples(3, 3000, 700, r);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<String> expected = results(new Join(pred, left, right));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, results(new GraceHashJoin(pred, left, right, 50)));
+    }
+
+    /**
+     * A partition whose keys are all equal cannot be split, and is joined in
+     * chunks of the memory budget.
+     */
+    @Test public void skew() throws Exception {
+        Random r = new Random(12);
+        TupleIterator left = randomTuples(2, 500, 1, r);
+        TupleIterator right = randomTuples(2, 40, 2, r);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<String> expected = results(new Join(pred, left, right));
+        assertEquals(expected, results(new GraceHashJoin(pred, left, right, 32)));
+    }
+
+    /**
+     * Only equality joins are supported.
+     */
+    @Test(expected = IllegalArgumentException.class) public void notEquals() {
+        OpIterator scan = TestUtil.createTupleList(1, new int[] { 1 });
+        new GraceHashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan, scan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraceHashJoinTest.class);
+    }
+}
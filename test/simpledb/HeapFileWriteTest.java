@@ -7,12 +7,15 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +93,93 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * An insert into a table of full pages locks only the page it inserts
+     * into, and grows the table by a batch of pages.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 40 * 504, null, null);
+        assertEquals(40, hf.numPages());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        // an eighth of the table is appended at once
+        assertEquals(45, hf.numPages());
+        for (int i = 0; i < 40; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 40)));
+    }
+
+    /**
+     * A slot freed by a delete is reused by the next insert.
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 40 * 504, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 7);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        // the free-space map is built by the first insert
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+
+        Tuple t = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        assertEquals(45, hf.numPages());
+    }
+
+    /**
+     * The slots taken by an aborted insert are free again for the next one.
+     */
+    @Test public void insertAfterAbort() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 494; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        TransactionId aborted = new TransactionId();
+        Database.getBufferPool().insertTuples(aborted, hf.getId(), tuples.iterator());
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    /**
+     * A bulk insert fills pages in order and returns each dirtied page once.
+     */
+    @Test public void insertTuples() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1500; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        List<Page> dirtied = empty.insertTuples(tid, tuples.iterator());
+
+        assertEquals(3, empty.numPages());
+        assertEquals(3, dirtied.size());
+        for (int i = 0; i < tuples.size(); ++i) {
+            RecordId rid = tuples.get(i).getRecordId();
+            assertEquals(i / 504, rid.getPageId().getPageNumber());
+            assertEquals(i % 504, rid.getTupleNumber());
+        }
+        for (Page p : dirtied)
+            assertEquals(tid, p.isDirty());
+    }
+
+    /**
+     * Pages written at any offset read back unchanged, and a page past the
+     * end of the file reads as an empty page.
+     */
+    @Test public void writeReadPage() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        hf.close();
+        assertArrayEquals(page.getPageData(), hf.readPage(pid).getPageData());
+
+        HeapPageId past = new HeapPageId(hf.getId(), hf.numPages() + 1);
+        assertArrayEquals(HeapPage.createEmptyPageData(), hf.readPage(past).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
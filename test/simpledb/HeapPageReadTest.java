@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -123,6 +124,106 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are decoded on demand: a page whose tuples were read only in
+     * part serializes to the bytes it was created from, and a field set on a
+     * tuple of the page is serialized with the page.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        first.setField(0, new IntField(7));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple copied = copy.iterator().next();
+        assertEquals(7, ((IntField) copied.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) copied.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(List): predicates are tested on the
+     * page, and a page whose values rule them out returns nothing
+     */
+    @Test public void iteratorWithPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(40000)));
+        List<Integer> expected = new ArrayList<>();
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000 && tuple[1] <= 40000)
+                expected.add(tuple[0]);
+        }
+        List<Integer> actual = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator(preds);
+        while (it.hasNext())
+            actual.add(it.next().getInt(0));
+        assertEquals(expected, actual);
+
+        // the largest value of field 0 is 62778
+        assertFalse(page.iterator(Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(62778)))).hasNext());
+        assertTrue(page.iterator(Collections.singletonList(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(62778)))).hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(): an empty slot in the middle of the
+     * page does not end the scan, and the page returns the same tuples with
+     * and without predicates that every tuple passes
+     */
+    @Test public void iteratorSkipsEmptySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        int hole = EXAMPLE_VALUES.length / 2;
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < hole; i++)
+            it.next();
+        page.deleteTuple(it.next());
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < EXAMPLE_VALUES.length; i++) {
+            if (i != hole)
+                expected.add(EXAMPLE_VALUES[i][0]);
+        }
+        List<Integer> actual = new ArrayList<>();
+        it = page.iterator();
+        while (it.hasNext())
+            actual.add(it.next().getInt(0));
+        assertEquals(expected, actual);
+
+        List<Integer> filtered = new ArrayList<>();
+        it = page.iterator(Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE))));
+        while (it.hasNext())
+            filtered.add(it.next().getInt(0));
+        assertEquals(expected, filtered);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(List): an empty slot before the
+     * matching tuples does not end the scan
+     */
+    @Test public void iteratorWithPredicatesSkipsEmptySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        List<Predicate> preds = Collections.singletonList(
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(40000)));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < EXAMPLE_VALUES.length; i++) {
+            if (EXAMPLE_VALUES[i][1] <= 40000)
+                expected.add(EXAMPLE_VALUES[i][0]);
+        }
+        assertFalse(expected.isEmpty());
+        List<Integer> actual = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator(preds);
+        while (it.hasNext())
+            actual.add(it.next().getInt(0));
+        assertEquals(expected, actual);
+    }
+
     /**
      * JUnit suite target
      */
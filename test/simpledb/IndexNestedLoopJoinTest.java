@@ -0,0 +1,100 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private static TupleIterator randomTuples(int rows, int keys, Random r) {
+        int[] data = new int[2 * rows];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i % 2 == 0 ? r.nextInt(keys) : r.nextInt();
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static List<String> results(OpIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Every supported predicate returns the same tuples as a nested-loops
+     * Join over a scan of the index.
+     */
+    @Test public void matchesJoin() throws Exception {
+        Random r = new Random(16);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, 300, null, null, 1);
+        TupleIterator outer = randomTuples(40, 300, r);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 1);
+            List<String> expected = results(new Join(pred, outer, new BTreeScan(tid, bf.getId(), null)));
+            assertFalse(expected.isEmpty());
+            assertEquals(op.toString(), expected, results(
+                    new IndexNestedLoopJoin(pred, outer, new BTreeScan(tid, bf.getId(), null), 7)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Filters over the index are applied to the tuples found.
+     */
+    @Test public void filteredIndex() throws Exception {
+        Random r = new Random(17);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, 100, null, null, 0);
+        TupleIterator outer = randomTuples(100, 100, r);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50));
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator scan = new Filter(p, new BTreeScan(tid, bf.getId(), null));
+        assertTrue(IndexNestedLoopJoin.canProbe(scan, 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(scan, 1));
+        List<String> expected = results(new Join(pred, outer, scan));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, results(new IndexNestedLoopJoin(pred, outer,
+                new Filter(p, new BTreeScan(tid, bf.getId(), null)))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The right child must be an index on the join field.
+     */
+    @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+        OpIterator scan = TestUtil.createTupleList(1, new int[] { 1 });
+        new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan, scan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -182,6 +182,37 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that groups past the in-memory budget are spilled and still
+   * aggregated correctly
+   */
+  @Test public void spill() throws Exception {
+    int groups = 200;
+    int[] data = new int[groups * 3 * width1];
+    int[] expected = new int[groups * width1];
+    for (int i = 0; i < groups * 3; i++) {
+      data[i * width1] = i % groups;
+      data[i * width1 + 1] = i;
+    }
+    for (int g = 0; g < groups; g++) {
+      expected[g * width1] = g;
+      expected[g * width1 + 1] = g + (g + groups) + (g + 2 * groups);
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, data);
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, 10);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+    it.rewind();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+    it.close();
+    agg.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -3,9 +3,12 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.execution.JoinFilter;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.Predicate;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -59,6 +62,23 @@ public class JoinPredicateTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * The compiled predicate agrees with JoinPredicate.filter() for every op.
+   */
+  @Test public void compile() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 0);
+      JoinFilter f = p.compile(Utility.getTupleDesc(1));
+      for (int i = -1; i <= 1; i++) {
+        for (int j = -1; j <= 1; j++) {
+          Tuple t1 = Utility.getHeapTuple(i);
+          Tuple t2 = Utility.getHeapTuple(j);
+          assertEquals(op + " " + i + " " + j, p.filter(t1, t2), f.test(t1, t2));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
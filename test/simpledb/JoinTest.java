@@ -5,6 +5,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -13,8 +17,12 @@ import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class JoinTest extends SimpleDbTestBase {
@@ -112,6 +120,63 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with more left tuples than fit in a block:
+   * the right child is rescanned once per block, not once per left tuple
+   */
+  @Test public void blockJoin() throws Exception {
+    int perPage = BufferPool.getPageSize() / Utility.getTupleDesc(width1).getSize();
+    int[] left = new int[width1 * (3 * perPage + 1)];
+    for (int i = 0; i < left.length; i++)
+      left[i] = i / width1;
+    int[] right = new int[width2 * 20];
+    for (int i = 0; i < right.length; i++)
+      right[i] = i * 97 % left.length;
+    int[] rewinds = new int[1];
+    TupleIterator rightScan = TestUtil.createTupleList(width2, right);
+    List<Tuple> rightTuples = new ArrayList<>();
+    while (rightScan.hasNext())
+      rightTuples.add(rightScan.next());
+    OpIterator counting = new TupleIterator(rightScan.getTupleDesc(), rightTuples) {
+      @Override public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, left), counting, 1);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(t.getField(0).compare(Predicate.Op.LESS_THAN, t.getField(width1)));
+      n++;
+    }
+    int expected = 0;
+    for (int i = 0; i < left.length; i += width1)
+      for (int j = 0; j < right.length; j += width2)
+        if (left[i] < right[j])
+          expected++;
+    assertEquals(expected, n);
+    // four blocks: the first scan plus three rewinds
+    assertEquals(3, rewinds[0]);
+  }
+
+  /**
+   * The planner joins unsorted inputs on a range predicate with block
+   * nested loops.
+   */
+  @Test public void chosenByPlanner() throws Exception {
+    OpIterator a = new TupleIterator(Utility.getTupleDesc(2, "a.f"), Collections.emptyList());
+    OpIterator b = new TupleIterator(Utility.getTupleDesc(2, "b.f"), Collections.emptyList());
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+        Predicate.Op.NOT_EQUALS }) {
+      LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.f0", "b.f0", op);
+      assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof Join);
+    }
+  }
+
   /**
    * JUnit suite target
    */
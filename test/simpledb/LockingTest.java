@@ -12,6 +12,8 @@ import simpledb.storage.PageId;
 import simpledb.transaction.TransactionId;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
   private PageId p0;
@@ -163,12 +165,12 @@ public class LockingTest extends TestUtil.CreateHeapFile {
    * Unit test for BufferPool.getPage() assuming locking.
    * Attempt lock upgrade.
    */
-//  @Test public void lockUpgrade() throws Exception {
-//    metaLockTester(tid1, p0, Permissions.READ_ONLY,
-//                   tid1, p0, Permissions.READ_WRITE, true);
-//    metaLockTester(tid2, p1, Permissions.READ_ONLY,
-//                   tid2, p1, Permissions.READ_WRITE, true);
-//  }
+  @Test public void lockUpgrade() throws Exception {
+    metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                   tid1, p0, Permissions.READ_WRITE, true);
+    metaLockTester(tid2, p1, Permissions.READ_ONLY,
+                   tid2, p1, Permissions.READ_WRITE, true);
+  }
 
   /**
    * Unit test for BufferPool.getPage() assuming locking.
@@ -195,6 +197,21 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete() assuming locking.
+   * Completing a transaction releases exactly the locks it holds.
+   */
+  @Test public void completeReleasesOwnLocks() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_ONLY);
+    bp.transactionComplete(tid1);
+
+    assertFalse(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid2, p1));
+    metaLockTester(tid2, p1, Permissions.READ_ONLY,
+                   tid1, p0, Permissions.READ_WRITE, true);
+  }
+
   /**
    * JUnit suite target
    */
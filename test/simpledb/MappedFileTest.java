@@ -0,0 +1,140 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    /**
+     * A MappedHeapFile returns the same pages and tuples as a HeapFile over
+     * the same file.
+     */
+    @Test public void heapFileScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 3000, null, tuples);
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mf.getId(), i);
+            assertArrayEquals(hf.readPage(pid).getPageData(), mf.readPage(pid).getPageData());
+        }
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * The before image of a mapped page is the mapped data, and a page past
+     * the end of the file is empty.
+     */
+    @Test public void heapPageBeforeImage() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        HeapPage page = (HeapPage) mf.readPage(new HeapPageId(mf.getId(), 0));
+        byte[] data = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        HeapPage past = (HeapPage) mf.readPage(new HeapPageId(mf.getId(), mf.numPages()));
+        assertArrayEquals(HeapPage.createEmptyPageData(), past.getPageData());
+    }
+
+    /**
+     * Mapped files reject modifications.
+     */
+    @Test public void readOnly() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        try {
+            mf.insertTuple(new TransactionId(), Utility.getHeapTuple(1, 2));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Flushing the buffer pool skips the clean pages of a mapped table,
+     * which cannot be written.
+     */
+    @Test public void flushCleanPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(mf.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Slices of a file mapped in several chunks hold the bytes of the file,
+     * also when they straddle two chunks.
+     */
+    @Test public void chunks() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        Files.write(f.toPath(), bytes);
+
+        MappedFile mf = new MappedFile(f, 300);
+        for (int offset : new int[]{0, 250, 300, 590, 900}) {
+            ByteBuffer slice = mf.slice(offset, 100);
+            byte[] read = new byte[100];
+            slice.get(read);
+            assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + 100), read);
+        }
+        assertNull(mf.slice(950, 100));
+    }
+
+    /**
+     * The mmap option of a catalog entry opens the table as a MappedHeapFile.
+     */
+    @Test public void loadSchemaOption() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 500, 1000, null, tuples);
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File table = new File(dir, "mapped.dat");
+        table.deleteOnExit();
+        Files.copy(data.toPath(), table.toPath());
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("mapped (a int, b int) mmap\n");
+        }
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("mapped"));
+        assertTrue(f instanceof MappedHeapFile);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
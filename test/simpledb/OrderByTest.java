@@ -0,0 +1,112 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static int[] randomData(int width, int rows, int max, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++)
+            data[i] = r.nextInt(max);
+        return data;
+    }
+
+    private static List<int[]> rows(OpIterator it) throws Exception {
+        List<int[]> l = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int[] row = new int[t.getTupleDesc().numFields()];
+            for (int i = 0; i < row.length; i++)
+                row[i] = ((IntField) t.getField(i)).getValue();
+            l.add(row);
+        }
+        return l;
+    }
+
+    private static void assertSorted(List<int[]> rows, Comparator<int[]> cmp, int expectedRows) {
+        assertEquals(expectedRows, rows.size());
+        for (int i = 1; i < rows.size(); i++)
+            assertTrue(cmp.compare(rows.get(i - 1), rows.get(i)) <= 0);
+    }
+
+    /**
+     * Unit test for OrderBy on a single field in either direction
+     */
+    @Test public void singleField() throws Exception {
+        int[] data = randomData(2, 500, 1000, new Random(18));
+        OrderBy asc = new OrderBy(1, true, TestUtil.createTupleList(2, data));
+        asc.open();
+        assertSorted(rows(asc), Comparator.comparingInt(row -> row[1]), 500);
+        OrderBy desc = new OrderBy(0, false, TestUtil.createTupleList(2, data));
+        desc.open();
+        assertSorted(rows(desc), Comparator.comparingInt((int[] row) -> row[0]).reversed(), 500);
+    }
+
+    /**
+     * Unit test for OrderBy on several fields with mixed directions, sorted
+     * in memory and with many spilled runs
+     */
+    @Test public void multipleFields() throws Exception {
+        int[] data = randomData(3, 1000, 10, new Random(19));
+        Comparator<int[]> cmp = Comparator.comparingInt((int[] row) -> row[2])
+                .thenComparing(Comparator.comparingInt((int[] row) -> row[0]).reversed());
+        for (int memory : new int[] { 100000, 50, 3 }) {
+            OrderBy op = new OrderBy(new int[] { 2, 0 }, new boolean[] { true, false },
+                    TestUtil.createTupleList(3, data), memory);
+            op.open();
+            List<int[]> rows = rows(op);
+            op.close();
+            assertSorted(rows, cmp, 1000);
+            // the same tuples come out as went in
+            List<String> in = new ArrayList<>(), out = new ArrayList<>();
+            for (int i = 0; i < data.length; i += 3)
+                in.add(Arrays.toString(Arrays.copyOfRange(data, i, i + 3)));
+            for (int[] row : rows)
+                out.add(Arrays.toString(row));
+            Collections.sort(in);
+            Collections.sort(out);
+            assertEquals(in, out);
+        }
+    }
+
+    /**
+     * Unit test for OrderBy.rewind() after spilling
+     */
+    @Test public void rewind() throws Exception {
+        int[] data = randomData(2, 300, 100, new Random(20));
+        OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+                TestUtil.createTupleList(2, data), 16);
+        op.open();
+        List<int[]> first = rows(op);
+        op.rewind();
+        List<int[]> second = rows(op);
+        op.close();
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++)
+            assertArrayEquals(first.get(i), second.get(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -3,8 +3,16 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.common.Type;
 import simpledb.execution.Predicate;
+import simpledb.execution.TupleFilter;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -57,6 +65,67 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * The compiled predicate agrees with Field.compare() for every op, over
+   * ints and strings.
+   */
+  @Test public void compile() {
+    Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    TupleDesc td = new TupleDesc(types);
+    String[] strs = new String[] { "ab", "abc", "b" };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = 0; i < 3; i++) {
+        TupleFilter fi = new Predicate(0, op, new IntField(i)).compile();
+        TupleFilter fs = new Predicate(1, op, new StringField(strs[i], Type.STRING_LEN)).compile();
+        for (int j = 0; j < 3; j++) {
+          Tuple t = new Tuple(td);
+          t.setField(0, new IntField(j));
+          t.setField(1, new StringField(strs[j], Type.STRING_LEN));
+          assertEquals(op + " " + i + " " + j,
+              t.getField(0).compare(op, new IntField(i)), fi.test(t));
+          assertEquals(op + " " + strs[i] + " " + strs[j],
+              t.getField(1).compare(op, new StringField(strs[i], Type.STRING_LEN)), fs.test(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Predicate.filter() over a batch selects the rows the tuple filter passes,
+   * with and without an earlier selection.
+   */
+  @Test public void filterBatch() {
+    TupleBatch b = new TupleBatch(Utility.getTupleDesc(1), 16);
+    for (int i = -5; i <= 5; i++)
+      b.add(Utility.getHeapTuple(i));
+    int[] vals = new int[] { Integer.MIN_VALUE, -1, 0, 3, Integer.MAX_VALUE };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int v : vals) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(v));
+        b.select(null, 0);
+        int[] out = new int[16];
+        int n = p.filter(b, out);
+        int k = 0;
+        for (int r = 0; r < b.rows(); r++) {
+          if (p.filter(b.getTuple(r)))
+            assertEquals(op + " " + v, r, out[k++]);
+        }
+        assertEquals(op + " " + v, k, n);
+
+        // only the even rows are selected
+        int[] sel = new int[] { 0, 2, 4, 6, 8, 10 };
+        b.select(sel, sel.length);
+        n = p.filter(b, sel);
+        k = 0;
+        for (int r = 0; r < b.rows(); r += 2) {
+          if (p.filter(b.getTuple(r)))
+            assertEquals(op + " " + v, r, sel[k++]);
+        }
+        assertEquals(op + " " + v, k, n);
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
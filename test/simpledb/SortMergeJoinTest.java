@@ -0,0 +1,130 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private static TupleIterator randomTuples(int width, int rows, int keys, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i % width == 0 ? r.nextInt(keys) : r.nextInt();
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static List<String> results(OpIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Every supported predicate returns the same tuples as Join, whether the
+     * inputs are sorted in memory or spilled.
+     */
+    @Test public void matchesJoin() throws Exception {
+        Random r = new Random(13);
+        TupleIterator left = randomTuples(2, 300, 60, r);
+        TupleIterator right = randomTuples(3, 200, 60, r);
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            List<String> expected = results(new Join(pred, left, right));
+            assertFalse(expected.isEmpty());
+            assertEquals(op.toString(), expected, results(new SortMergeJoin(pred, left, right)));
+            assertEquals(op.toString(), expected, results(new SortMergeJoin(pred, left, right, 16)));
+        }
+    }
+
+    /**
+     * Children sorted on their join fields are recognized and merged as is.
+     */
+    @Test public void sortedInputs() throws Exception {
+        Random r = new Random(14);
+        TupleIterator left = randomTuples(2, 200, 40, r);
+        TupleIterator right = randomTuples(2, 200, 40, r);
+        OpIterator sorted1 = new OrderBy(0, true, left);
+        OpIterator sorted2 = new OrderBy(1, true, right);
+        assertTrue(OrderBy.isSortedOn(sorted1, 0));
+        assertFalse(OrderBy.isSortedOn(sorted2, 0));
+        assertFalse(OrderBy.isSortedOn(new OrderBy(0, false, left), 0));
+        assertFalse(OrderBy.isSortedOn(left, 0));
+
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SortMergeJoin join = new SortMergeJoin(pred, sorted1, sorted2);
+        assertTrue(OrderBy.isSortedOn(join, 0));
+        assertEquals(results(new Join(pred, left, right)), results(join));
+    }
+
+    /**
+     * The planner merges range joins over sorted inputs, and sort-merges
+     * unsorted ones only while that beats block nested loops: here while the
+     * sorted inner side stays in memory rather than being reread from disk
+     * for every outer tuple.
+     */
+    @Test public void chosenByPlanner() throws Exception {
+        TupleIterator a = new TupleIterator(Utility.getTupleDesc(2, "a.f"), Collections.emptyList());
+        TupleIterator b = new TupleIterator(Utility.getTupleDesc(2, "b.f"), Collections.emptyList());
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.f0", "b.f0", Predicate.Op.GREATER_THAN);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, new OrderBy(0, true, a), new OrderBy(0, true, b))
+                instanceof SortMergeJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 1000, 1000, 1e5, 1e5)
+                instanceof SortMergeJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 200000, 200000, 2e6, 2e6)
+                instanceof Join);
+    }
+
+    /**
+     * rewind returns the same tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        Random r = new Random(15);
+        TupleIterator left = randomTuples(2, 100, 20, r);
+        TupleIterator right = randomTuples(2, 100, 20, r);
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right, 8);
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.rewind();
+        int m = 0;
+        while (join.hasNext()) {
+            join.next();
+            m++;
+        }
+        join.close();
+        assertTrue(n > 0);
+        assertEquals(n, m);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TopKTest extends SimpleDbTestBase {
+
+    private static List<String> rows(OpIterator it, int max) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext() && l.size() < max)
+            l.add(it.next().toString());
+        it.close();
+        return l;
+    }
+
+    /**
+     * TopK returns the first k tuples OrderBy does, for k smaller than,
+     * equal to and larger than the input.
+     */
+    @Test public void matchesOrderBy() throws Exception {
+        Random r = new Random(21);
+        int[] data = new int[3 * 500];
+        for (int i = 0; i < data.length; i++)
+            data[i] = r.nextInt(20);
+        int[] fields = { 1, 2 };
+        boolean[] asc = { false, true };
+        for (int k : new int[] { 0, 1, 17, 500, 800 }) {
+            List<String> expected = rows(new OrderBy(fields, asc, TestUtil.createTupleList(3, data)), k);
+            // ties on both fields may come out in any order, so compare the keys
+            List<String> actual = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            TopK op = new TopK(fields, asc, k, TestUtil.createTupleList(3, data));
+            op.open();
+            while (op.hasNext()) {
+                Tuple t = op.next();
+                actual.add(t.getField(1) + " " + t.getField(2));
+            }
+            op.rewind();
+            assertEquals(actual.size(), rows(op, Integer.MAX_VALUE).size());
+            for (String row : expected) {
+                String[] f = row.split(" ");
+                keys.add(f[1] + " " + f[2]);
+            }
+            assertEquals(keys, actual);
+        }
+    }
+
+    /**
+     * Over an index scan on the ORDER BY field TopK reads only the first k
+     * tuples.
+     */
+    @Test public void sortedChild() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, 1000, null, null, 0);
+        TransactionId tid = new TransactionId();
+        TopK op = new TopK(new int[] { 0 }, new boolean[] { true }, 25,
+                new BTreeScan(tid, bf.getId(), null));
+        assertTrue(op.isChildSorted());
+        List<String> actual = rows(op, Integer.MAX_VALUE);
+        List<String> expected = rows(new OrderBy(0, true, new BTreeScan(tid, bf.getId(), null)), 25);
+        assertEquals(25, actual.size());
+        for (int i = 0; i < 25; i++)
+            assertEquals(expected.get(i).split(" ")[0], actual.get(i).split(" ")[0]);
+        assertFalse(new TopK(new int[] { 1 }, new boolean[] { true }, 25,
+                new BTreeScan(tid, bf.getId(), null)).isChildSorted());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Limit returns the first tuples of its child.
+     */
+    @Test public void limit() throws Exception {
+        OpIterator scan = TestUtil.createTupleList(1, new int[] { 5, 4, 3, 2, 1 });
+        OpIterator expected = TestUtil.createTupleList(1, new int[] { 5, 4, 3 });
+        Limit op = new Limit(3, scan);
+        op.open();
+        expected.open();
+        TestUtil.compareDbIterators(expected, op);
+        op.rewind();
+        expected.rewind();
+        TestUtil.compareDbIterators(expected, op);
+        op.close();
+        assertEquals(0, rows(new Limit(0, scan), Integer.MAX_VALUE).size());
+    }
+
+    /**
+     * The parser cuts a trailing LIMIT clause off the statement.
+     */
+    @Test public void parseLimit() {
+        Parser p = new Parser();
+        assertEquals("SELECT * FROM t ORDER BY t.a;",
+                p.stripLimit("SELECT * FROM t ORDER BY t.a LIMIT 10;"));
+        assertEquals("select * from t;\n", p.stripLimit("select * from t limit 3 ;\n"));
+        String noLimit = "SELECT * FROM t; SELECT * FROM u LIMIT 2;";
+        assertEquals(noLimit, p.stripLimit(noLimit));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopKTest.class);
+    }
+}
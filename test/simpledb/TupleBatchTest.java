@@ -0,0 +1,198 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private static List<String> tuples(OpIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Reads it through nextBatch.
+     */
+    private static List<String> batches(BatchIterator it) throws Exception {
+        return tuples(new TupleAdapter(it));
+    }
+
+    /**
+     * Rows are stored column by column, and filtering only changes the
+     * selection.
+     */
+    @Test public void columns() {
+        TupleBatch b = new TupleBatch(Utility.getTupleDesc(2), 4);
+        for (int i = 0; i < 4; i++)
+            b.add(Utility.getHeapTuple(new int[] { i, 10 * i }));
+        assertTrue(b.isFull());
+        assertEquals(4, b.size());
+        assertArrayEquals(new int[] { 0, 10, 20, 30 }, b.intColumn(1));
+        b.select(new int[] { 1, 3 }, 2);
+        assertEquals(2, b.size());
+        assertEquals(3, b.row(1));
+        assertEquals(new IntField(30), b.getTuple(b.row(1)).getField(1));
+
+        TupleBatch p = b.project(new int[] { 1 }, Utility.getTupleDesc(1));
+        assertEquals(2, p.size());
+        assertSame(b.intColumn(1), p.intColumn(0));
+
+        b.clear();
+        assertEquals(0, b.size());
+        assertNull(b.selection());
+    }
+
+    /**
+     * A scan, filter and projection read through nextBatch return the same
+     * tuples as read through next.
+     */
+    @Test public void scanFilterProject() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        assertEquals(tuples(scan), batches(new SeqScan(tid, f.getId(), "t")));
+
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(70));
+        Predicate q = new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(5));
+        Filter tupleFilter = new Filter(q, new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        Filter batchFilter = new Filter(q, new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        List<String> expected = tuples(tupleFilter);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, batches(batchFilter));
+
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        assertEquals(tuples(new Project(fields, types, tupleFilter)),
+                batches(new Project(fields, types, batchFilter)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Batches filled from the page bytes skip deleted tuples, and hold the
+     * tuples the scan would return, with and without pushed-down predicates.
+     */
+    @Test public void scanFromPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        List<String> expected = tuples(new SeqScan(tid, f.getId(), "t"));
+        assertEquals(2000, expected.size());
+        assertEquals(expected, batches(new SeqScan(tid, f.getId(), "t")));
+
+        List<Predicate> ps = Collections.singletonList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)));
+        SeqScan scan = new SeqScan(tid, f.getId(), "t").pushDown(ps);
+        assertEquals(tuples(scan), batches(new SeqScan(tid, f.getId(), "t").pushDown(ps)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Only a plan that is read in batches down to its scans gets a
+     * TupleAdapter at its root.
+     */
+    @Test public void batchedPlan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5));
+        List<Integer> fields = Collections.singletonList(1);
+        Type[] types = new Type[] { Type.INT_TYPE };
+        OpIterator plan = new Project(fields, types, new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        OpIterator root = LogicalPlan.batched(plan);
+        assertTrue(root instanceof TupleAdapter);
+        assertEquals(tuples(plan), tuples(root));
+
+        OpIterator sorted = new Project(fields, types,
+                new OrderBy(new int[] { 1 }, new boolean[] { true }, new SeqScan(tid, f.getId(), "t")));
+        assertSame(sorted, LogicalPlan.batched(sorted));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Operators read a child without batches through a BatchAdapter.
+     */
+    @Test public void adapter() throws Exception {
+        int[] data = new int[3000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i % 7;
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3));
+        assertEquals(tuples(new Filter(p, TestUtil.createTupleList(1, data))),
+                batches(new Filter(p, TestUtil.createTupleList(1, data))));
+        assertEquals(tuples(TestUtil.createTupleList(1, data)),
+                batches(BatchAdapter.of(TestUtil.createTupleList(1, data))));
+    }
+
+    /**
+     * A hash join read through nextBatch returns the same tuples as read
+     * through next, over several batches of each side.
+     */
+    @Test public void hashJoin() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, new ArrayList<>());
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<String> expected = tuples(new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                new SeqScan(tid, f2.getId(), "b")));
+        assertTrue(expected.size() > BatchIterator.DEFAULT_BATCH_ROWS);
+        assertEquals(expected, batches(new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                new SeqScan(tid, f2.getId(), "b"))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An aggregate over a filtered scan returns the same groups read through
+     * nextBatch as through next.
+     */
+    @Test public void aggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(25));
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.AVG };
+        Aggregate a = new Aggregate(new Filter(p, new SeqScan(tid, f.getId(), "t")),
+                new int[] { 1, 1, 1 }, new int[] { 0 }, ops);
+        List<String> expected = tuples(a);
+        assertEquals(50, expected.size());
+        assertEquals(expected, batches(a));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -5,6 +5,9 @@ import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -59,6 +62,38 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for PackedTuple: values are read without Fields, and a merge
+     * shares the stored values of both tuples.
+     */
+    @Test public void packedTuple() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        byte[] bs = "abc".getBytes();
+        buf.putInt(8, bs.length);
+        buf.position(12);
+        buf.put(bs);
+
+        PackedTuple t = new PackedTuple(td);
+        t.setInt(0, 42);
+        t.setString(1, buf, 8);
+        assertEquals(42, t.getInt(0));
+        assertEquals("abc", t.getString(1));
+        assertEquals(new IntField(42), t.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), t.getField(1));
+
+        t.setField(0, new IntField(7));
+        assertEquals(7, t.getInt(0));
+
+        Tuple plain = Utility.getHeapTuple(new int[] { 1, 2 });
+        TupleDesc merged = TupleDesc.merge(td, plain.getTupleDesc());
+        PackedTuple m = PackedTuple.merge(t, plain, merged);
+        assertEquals(7, m.getInt(0));
+        assertEquals("abc", m.getString(1));
+        assertEquals(1, m.getInt(2));
+        assertEquals(new IntField(2), m.getField(3));
+    }
+
     /**
      * JUnit suite target
      */
@@ -11,9 +11,13 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -28,6 +32,22 @@ public class AggregateTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /**
+     * Like validateAggregate, splitting the scan over parallelism threads.
+     */
+    public void validateParallelAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn,
+                                          int groupColumn, List<List<Integer>> expectedResult, int parallelism)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        int[] gfields = groupColumn == Aggregator.NO_GROUPING ? new int[0] : new int[]{groupColumn};
+        Aggregate ag = new Aggregate(ss, new int[]{aggregateColumn}, gfields,
+                new Aggregator.Op[]{operation}, Aggregate.DEFAULT_MEMORY_GROUPS, parallelism);
+
+        SystemTestUtil.matchTuples(ag, expectedResult);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     private int computeAggregate(List<Integer> values, Aggregator.Op operation) {
         if (operation == Aggregator.Op.COUNT) return values.size();
 
@@ -83,17 +103,25 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, ROWS, 1);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int rows, int parallelism)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         List<List<Integer>> createdTuples = new ArrayList<>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
-                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+                COLUMNS, rows, MAX_VALUE, null, createdTuples);
 
         // Compute the expected answer
         List<List<Integer>> expected =
                 aggregate(createdTuples, operation, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        if (parallelism == 1)
+            validateAggregate(table, operation, 1, groupColumn, expected);
+        else
+            validateParallelAggregate(table, operation, 1, groupColumn, expected, parallelism);
     }
 
     @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
@@ -121,6 +149,49 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testSumParallel() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.SUM, 0, 16 * ROWS, 4);
+    }
+
+    @Test public void testCountParallel() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.COUNT, 0, 16 * ROWS, 4);
+    }
+
+    @Test public void testAverageParallel() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.AVG, 0, 16 * ROWS, 4);
+    }
+
+    @Test public void testMinNoGroupParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.MIN, Aggregator.NO_GROUPING, 16 * ROWS, 4);
+    }
+
+    /** Aggregates a filtered scan split into pipelines by a Gather. */
+    @Test public void testSumFilteredParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 16 * ROWS, MAX_VALUE, null, createdTuples);
+        List<List<Integer>> filtered = new ArrayList<>();
+        for (List<Integer> t : createdTuples) {
+            if (t.get(2) < MAX_VALUE / 2)
+                filtered.add(t);
+        }
+        List<List<Integer>> expected = aggregate(filtered, Aggregator.Op.SUM, 0);
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        Filter filter = new Filter(p, new SeqScan(tid, table.getId(), ""));
+        Gather gather = new Gather(Gather.split(filter, 4));
+        Aggregate ag = new Aggregate(gather, new int[]{1}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.SUM}, Aggregate.DEFAULT_MEMORY_GROUPS, 4);
+        SystemTestUtil.matchTuples(ag, expected);
+        // sequentially, through the Gather
+        ag = new Aggregate(gather, 1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
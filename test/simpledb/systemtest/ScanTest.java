@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 
@@ -11,6 +12,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -73,6 +75,72 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that the scans split from a SeqScan together return its tuples. */
+    @Test public void testSplit() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        SeqScan[] parts = scan.split(4);
+        assertEquals(4, parts.length);
+        List<List<Integer>> read = new ArrayList<>();
+        for (SeqScan part : parts) {
+            part.open();
+            while (part.hasNext())
+                read.add(SystemTestUtil.tupleToList(part.next()));
+            part.close();
+        }
+        assertEquals(tuples, read);
+
+        // never more parts than pages
+        assertEquals(f.numPages(), scan.split(f.numPages() + 10).length);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Test that a SeqScan with pushed down predicates returns the tuples that
+     * pass them, also after a tuple is inserted on a page it skipped.
+     */
+    @Test public void testPushDown() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) >= 30 && t.get(1) != 7)
+                expected.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table").pushDown(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(30)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(7))));
+        List<List<Integer>> read = new ArrayList<>();
+        for (SeqScan part : scan.split(3)) {
+            part.open();
+            while (part.hasNext())
+                read.add(SystemTestUtil.tupleToList(part.next()));
+            part.close();
+        }
+        assertEquals(expected, read);
+
+        // every page is ruled out by its values, until one gets a match
+        SeqScan none = new SeqScan(tid, f.getId(), "table").pushDown(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(500))));
+        none.open();
+        assertFalse(none.hasNext());
+        none.close();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[]{1000, 1}));
+        none = new SeqScan(tid, f.getId(), "table").pushDown(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(500))));
+        none.open();
+        assertTrue(none.hasNext());
+        assertEquals(Arrays.asList(1000, 1), SystemTestUtil.tupleToList(none.next()));
+        assertFalse(none.hasNext());
+        none.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */